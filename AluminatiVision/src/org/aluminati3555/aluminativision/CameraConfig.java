@@ -0,0 +1,236 @@
+/**
+ * Copyright (c) 2019 Team 3555
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.aluminati3555.aluminativision;
+
+import java.lang.reflect.Field;
+import java.util.Properties;
+
+import org.aluminati3555.aluminativision.pipeline.PipelineConfig;
+import org.aluminati3555.aluminativision.pipeline.PipelineConfig.PipelineMode;
+import org.aluminati3555.aluminativision.tracking.TargetTracker;
+
+/**
+ * This class holds the settings for one camera and everything attached to it
+ * 
+ * @author Caleb Heydon
+ */
+public class CameraConfig {
+	public String name;
+
+	// Frame source (see FrameSources) and the FPS used for offline sources
+	public String source;
+	public double sourceFPS = 0;
+
+	// V4L2 settings (ps3, microsoft or none)
+	public String driver = "ps3";
+	public CameraResolution resolution = new CameraResolution(320, 240);
+	public int fps = 187;
+	public int exposure = 2;
+	public int brightness = 0;
+	public int whiteBalanceTemperature = 6500;
+
+	// Priority of the capture and processing threads
+	public int priority = Thread.MAX_PRIORITY;
+
+	// Calibration file from the CalibrationTool (null for none)
+	public String calibrationFile;
+
+	// MJPEG stream and its jpeg quality (lens distortion is removed from the
+	// stream when undistort is set and the camera has a calibration)
+	public int streamPort = 5800;
+	public CameraResolution streamResolution = new CameraResolution(160, 120);
+	public int streamFPS = 15;
+	public int streamQuality = 50;
+	public boolean streamUndistort = false;
+
+	// UDP output and remote tuning
+	public String outputAddress = "10.35.55.2";
+	public int outputPort = 5800;
+	public int configPort = 5800;
+
+	// Pipeline (configurable or test) and whether its stages run on separate
+	// threads
+	public String pipelineType = "configurable";
+	public String testImage;
+	public boolean stagedPipeline = false;
+	public PipelineConfig pipelineConfig = new PipelineConfig();
+
+	// Every pipeline that runs on the camera's frames (the first is pipelineConfig
+	// and the rest start as copies of it) and the most threads to run them on (0
+	// uses the free cores)
+	public PipelineConfig[] pipelineConfigs = { pipelineConfig };
+	public int pipelineThreads = 0;
+
+	// Reuses the last result while the frame and config do not change (not with a
+	// staged pipeline)
+	public boolean gateEnabled = false;
+	public double gateTolerance = 4;
+	public double gateMaxReuseAge = 0.25;
+
+	// Filters the main target before it is sent (the tracker's public fields are
+	// its settings)
+	public boolean trackerEnabled = false;
+	public TargetTracker tracker = new TargetTracker();
+
+	/**
+	 * Returns the V4L2 device number of the camera or -1 if the source is not a
+	 * camera
+	 * 
+	 * @return
+	 */
+	public int getDevice() {
+		if (!source.startsWith("camera")) {
+			return -1;
+		}
+
+		int separator = source.indexOf(':');
+		return (separator < 0) ? 0 : Integer.parseInt(source.substring(separator + 1));
+	}
+
+	private static String getString(Properties properties, String key, String defaultValue) {
+		String value = properties.getProperty(key);
+		return (value == null) ? defaultValue : value.trim();
+	}
+
+	private static int getInt(Properties properties, String key, int defaultValue) {
+		String value = properties.getProperty(key);
+		return (value == null) ? defaultValue : Integer.parseInt(value.trim());
+	}
+
+	private static double getDouble(Properties properties, String key, double defaultValue) {
+		String value = properties.getProperty(key);
+		return (value == null) ? defaultValue : Double.parseDouble(value.trim());
+	}
+
+	/**
+	 * Sets public fields of an object from properties that start with a prefix
+	 * 
+	 * @param object
+	 * @param properties
+	 * @param prefix
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static void loadFields(Object object, Properties properties, String prefix) {
+		Field[] fields = object.getClass().getFields();
+
+		for (int i = 0; i < fields.length; i++) {
+			String value = properties.getProperty(prefix + fields[i].getName());
+			if (value == null) {
+				continue;
+			}
+			value = value.trim();
+
+			Class<?> type = fields[i].getType();
+			try {
+				if (type == double.class) {
+					fields[i].setDouble(object, Double.parseDouble(value));
+				} else if (type == int.class) {
+					fields[i].setInt(object, Integer.parseInt(value));
+				} else if (type == boolean.class) {
+					fields[i].setBoolean(object, Boolean.parseBoolean(value));
+				} else if (type.isEnum()) {
+					fields[i].set(object, Enum.valueOf((Class<Enum>) type, value.toUpperCase()));
+				} else if (type == String.class) {
+					fields[i].set(object, value);
+				}
+			} catch (IllegalArgumentException | IllegalAccessException e) {
+				System.err.println("Error: Invalid value for " + prefix + fields[i].getName() + ": " + value);
+			}
+		}
+	}
+
+	/**
+	 * Loads the config for a camera. Keys start with camera.[index]. and anything
+	 * that is missing keeps its default value.
+	 * 
+	 * @param properties
+	 * @param index
+	 * @return
+	 * @throws NumberFormatException
+	 */
+	public static CameraConfig load(Properties properties, int index) throws NumberFormatException {
+		String prefix = "camera." + index + ".";
+
+		CameraConfig config = new CameraConfig();
+		config.name = "camera" + index;
+		config.source = "camera:" + index;
+		config.streamPort += index;
+		config.outputPort += index;
+		config.configPort += index;
+
+		config.name = getString(properties, prefix + "name", config.name);
+		config.source = getString(properties, prefix + "source", config.source);
+		config.sourceFPS = getDouble(properties, prefix + "sourceFPS", config.sourceFPS);
+
+		config.driver = getString(properties, prefix + "driver", config.driver);
+		config.resolution.width = getInt(properties, prefix + "width", config.resolution.width);
+		config.resolution.height = getInt(properties, prefix + "height", config.resolution.height);
+		config.fps = getInt(properties, prefix + "fps", config.fps);
+		config.exposure = getInt(properties, prefix + "exposure", config.exposure);
+		config.brightness = getInt(properties, prefix + "brightness", config.brightness);
+		config.whiteBalanceTemperature = getInt(properties, prefix + "whiteBalanceTemperature",
+				config.whiteBalanceTemperature);
+		config.priority = getInt(properties, prefix + "priority", config.priority);
+		config.calibrationFile = getString(properties, prefix + "calibration", null);
+
+		config.streamPort = getInt(properties, prefix + "stream.port", config.streamPort);
+		config.streamResolution.width = getInt(properties, prefix + "stream.width", config.streamResolution.width);
+		config.streamResolution.height = getInt(properties, prefix + "stream.height",
+				config.streamResolution.height);
+		config.streamFPS = getInt(properties, prefix + "stream.fps", config.streamFPS);
+		config.streamQuality = getInt(properties, prefix + "stream.quality", config.streamQuality);
+		config.streamUndistort = Boolean
+				.parseBoolean(getString(properties, prefix + "stream.undistort", "" + config.streamUndistort));
+
+		config.outputAddress = getString(properties, prefix + "output.address", config.outputAddress);
+		config.outputPort = getInt(properties, prefix + "output.port", config.outputPort);
+		config.configPort = getInt(properties, prefix + "config.port", config.configPort);
+
+		config.pipelineType = getString(properties, prefix + "pipeline.type", config.pipelineType);
+		config.testImage = getString(properties, prefix + "pipeline.image", null);
+		config.stagedPipeline = Boolean
+				.parseBoolean(getString(properties, prefix + "pipeline.staged", "" + config.stagedPipeline));
+		config.pipelineConfig.pipelineMode = PipelineMode.PROCESSING;
+		loadFields(config.pipelineConfig, properties, prefix + "pipeline.");
+
+		int pipelineCount = Math.max(1, getInt(properties, prefix + "pipelines", 1));
+		config.pipelineConfigs = new PipelineConfig[pipelineCount];
+		config.pipelineConfigs[0] = config.pipelineConfig;
+		for (int i = 1; i < pipelineCount; i++) {
+			config.pipelineConfigs[i] = config.pipelineConfig.copy();
+			loadFields(config.pipelineConfigs[i], properties, prefix + "pipeline." + i + ".");
+		}
+		config.pipelineThreads = getInt(properties, prefix + "pipelines.threads", config.pipelineThreads);
+
+		config.gateEnabled = Boolean
+				.parseBoolean(getString(properties, prefix + "gate.enabled", "" + config.gateEnabled));
+		config.gateTolerance = getDouble(properties, prefix + "gate.tolerance", config.gateTolerance);
+		config.gateMaxReuseAge = getDouble(properties, prefix + "gate.maxReuseAge", config.gateMaxReuseAge);
+
+		config.trackerEnabled = Boolean
+				.parseBoolean(getString(properties, prefix + "tracker.enabled", "" + config.trackerEnabled));
+		loadFields(config.tracker, properties, prefix + "tracker.");
+
+		return config;
+	}
+}
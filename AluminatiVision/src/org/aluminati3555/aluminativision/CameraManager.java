@@ -0,0 +1,461 @@
+/**
+ * Copyright (c) 2019 Team 3555
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.aluminati3555.aluminativision;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Properties;
+
+import org.aluminati3555.aluminativision.calibration.CameraCalibration;
+import org.aluminati3555.aluminativision.metrics.MetricsRegistry;
+import org.aluminati3555.aluminativision.net.ConfigListener;
+import org.aluminati3555.aluminativision.net.MJPEGServer;
+import org.aluminati3555.aluminativision.net.StreamBudget;
+import org.aluminati3555.aluminativision.net.StreamEncoder;
+import org.aluminati3555.aluminativision.net.UDPVisionOutputHandler;
+import org.aluminati3555.aluminativision.pipeline.ChangeDetectionGate;
+import org.aluminati3555.aluminativision.pipeline.ConfigurablePipeline;
+import org.aluminati3555.aluminativision.pipeline.IVisionPipeline;
+import org.aluminati3555.aluminativision.pipeline.MultiPipelineRunner;
+import org.aluminati3555.aluminativision.pipeline.StagedPipeline;
+import org.aluminati3555.aluminativision.pipeline.TestPipeline;
+import org.aluminati3555.aluminativision.source.CameraFrameSource;
+import org.aluminati3555.aluminativision.source.FrameSources;
+import org.aluminati3555.aluminativision.source.IFrameSource;
+import org.aluminati3555.aluminativision.util.VisionUtil;
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.Videoio;
+
+/**
+ * This class starts a capture, processing and streaming chain for every camera
+ * in a config file. Each chain has its own threads so that cameras do not wait
+ * on each other.
+ * 
+ * @author Caleb Heydon
+ */
+public class CameraManager {
+	private ArrayList<Camera> cameras;
+
+	/**
+	 * Returns the number of cameras that are running
+	 * 
+	 * @return
+	 */
+	public int getCameraCount() {
+		return cameras.size();
+	}
+
+	/**
+	 * Updates the V4L2 settings of a camera
+	 * 
+	 * @param config
+	 */
+	private static void updateV4L2(CameraConfig config) {
+		int device = config.getDevice();
+		if (device < 0) {
+			return;
+		}
+
+		switch (config.driver) {
+		case "ps3":
+			AluminatiVision.configPS3Camera(device, config.resolution.width, config.resolution.height, config.fps,
+					config.exposure, config.brightness);
+			break;
+		case "microsoft":
+			AluminatiVision.configMicrosoftCamera(device, config.resolution.width, config.resolution.height,
+					config.fps, config.exposure, config.brightness, config.whiteBalanceTemperature);
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Updates the V4L2 settings of every camera in case V4L2 was not fully
+	 * initialized when the program started
+	 */
+	public void updateV4L2() {
+		for (int i = 0; i < cameras.size(); i++) {
+			updateV4L2(cameras.get(i).config);
+		}
+	}
+
+	/**
+	 * Divides a count of bytes by a count of frames
+	 * 
+	 * @param bytes
+	 * @param frames
+	 * @return
+	 */
+	private static long perFrame(long bytes, long frames) {
+		return (frames > 0) ? bytes / frames : 0;
+	}
+
+	/**
+	 * Returns the bytes allocated by every stream encoder of a server
+	 * 
+	 * @param server
+	 * @return
+	 */
+	private static long getEncoderAllocatedBytes(MJPEGServer server) {
+		StreamEncoder[] encoders = server.getEncoders();
+
+		long bytes = 0;
+		for (int i = 0; i < encoders.length; i++) {
+			bytes += VisionUtil.getAllocatedBytes(encoders[i]);
+		}
+
+		return bytes;
+	}
+
+	/**
+	 * Prints the throughput and allocation rate of every camera since the last
+	 * report
+	 */
+	public void report() {
+		double time = VisionUtil.getTime();
+
+		for (int i = 0; i < cameras.size(); i++) {
+			Camera camera = cameras.get(i);
+
+			long frameCount = camera.loop.getFrameCount();
+			double fps = (frameCount - camera.lastFrameCount) / (time - camera.lastReportTime);
+
+			System.out.println(camera.config.name + ": " + Math.round(fps) + " FPS, " + camera.loop.getDroppedFrames()
+					+ " dropped frames");
+
+			// Heap allocations per frame on the vision loop, the stream encoders and the
+			// server thread
+			long loopBytes = VisionUtil.getAllocatedBytes(camera.loop);
+			long encoderBytes = getEncoderAllocatedBytes(camera.server);
+			long serverBytes = VisionUtil.getAllocatedBytes(camera.server);
+			long encodedFrames = camera.server.getEncodedFrames();
+
+			System.out.println(camera.config.name + " allocations: "
+					+ perFrame(loopBytes - camera.lastLoopBytes, frameCount - camera.lastFrameCount)
+					+ " B/frame (loop), "
+					+ perFrame(encoderBytes - camera.lastEncoderBytes, encodedFrames - camera.lastEncodedFrames)
+					+ " B/frame (stream), "
+					+ perFrame(serverBytes - camera.lastServerBytes, encodedFrames - camera.lastEncodedFrames)
+					+ " B/frame (server), " + camera.server.getSupersededFrames() + " stream frames superseded");
+
+			camera.lastLoopBytes = loopBytes;
+			camera.lastEncoderBytes = encoderBytes;
+			camera.lastServerBytes = serverBytes;
+			camera.lastEncodedFrames = encodedFrames;
+
+			camera.lastFrameCount = frameCount;
+			camera.lastReportTime = time;
+			if (camera.stagedPipeline != null) {
+				System.out.println(camera.config.name + " stages: " + camera.stagedPipeline.report());
+			}
+		}
+	}
+
+	/**
+	 * Connects every part of a camera to its metrics so that they can be read at
+	 * /metrics on the stream port
+	 * 
+	 * @param camera
+	 */
+	private static void addMetrics(Camera camera) {
+		MetricsRegistry metrics = new MetricsRegistry(camera.config.name);
+		camera.metrics = metrics;
+
+		camera.pipeline.setMetrics(metrics);
+		camera.loop.setMetrics(metrics);
+		camera.server.setMetrics(metrics);
+
+		VisionLoop loop = camera.loop;
+		MJPEGServer server = camera.server;
+
+		metrics.addGauge("fps", () -> loop.getFPS());
+		metrics.addGauge("frames", () -> loop.getFrameCount());
+		metrics.addGauge("dropped_frames", () -> loop.getDroppedFrames());
+		metrics.addGauge("loop_allocated_bytes", () -> VisionUtil.getAllocatedBytes(loop));
+		metrics.addGauge("stream_frames", () -> server.getEncodedFrames());
+		metrics.addGauge("stream_superseded_frames", () -> server.getSupersededFrames());
+		metrics.addGauge("stream_bytes_per_frame", () -> server.getBytesPerFrame());
+		metrics.addGauge("stream_allocated_bytes", () -> getEncoderAllocatedBytes(server));
+		metrics.addGauge("stream_server_allocated_bytes", () -> VisionUtil.getAllocatedBytes(server));
+		metrics.addGauge("stream_clients", () -> server.getClientCount());
+		metrics.addGauge("stream_slow_client_drops", () -> server.getSlowClientDrops());
+		metrics.addGauge("stream_bytes_sent", () -> server.getBytesSent());
+		metrics.addGauge("stream_bytes_per_second", () -> server.getBytesPerSecond());
+		metrics.addGauge("stream_variants", () -> server.getVariantCount());
+
+		MultiPipelineRunner runner = camera.runner;
+		if (runner != null) {
+			// The other pipelines run on worker threads, so each has its own stage
+			// times (pipeline1_threshold and so on)
+			ConfigurablePipeline[] pipelines = runner.getPipelines();
+			for (int i = 1; i < pipelines.length; i++) {
+				pipelines[i].setMetrics(metrics, "pipeline" + i + "_");
+			}
+			runner.setMetrics(metrics);
+			metrics.addGauge("shared_hsv_frames", () -> runner.getSharedFrames());
+		}
+
+		ChangeDetectionGate gate = camera.gate;
+		if (gate != null) {
+			gate.setMetrics(metrics);
+			metrics.addGauge("gate_hits", () -> gate.getHits());
+			metrics.addGauge("gate_misses", () -> gate.getMisses());
+			metrics.addGauge("gate_hit_rate", () -> gate.getHitRate());
+		}
+
+		StagedPipeline stagedPipeline = camera.stagedPipeline;
+		if (stagedPipeline != null) {
+			String[] stageNames = StagedPipeline.getStageNames();
+			for (int i = 0; i < stageNames.length; i++) {
+				int stage = i;
+				metrics.addGauge("stage_" + stageNames[i] + "_busy_seconds",
+						() -> stagedPipeline.getStageBusyTime(stage));
+				metrics.addGauge("stage_" + stageNames[i] + "_waiting",
+						() -> stagedPipeline.getStageQueueSize(stage));
+			}
+		}
+	}
+
+	/**
+	 * Starts the chain for one camera. Nothing is started until every part has
+	 * been opened, and whatever was opened is closed if a part fails.
+	 * 
+	 * @param index
+	 * @param config
+	 * @throws IOException
+	 */
+	private void startCamera(int index, CameraConfig config) throws IOException {
+		Camera camera = new Camera();
+		camera.config = config;
+
+		camera.server = new MJPEGServer(config.streamResolution, config.streamPort, config.streamFPS);
+		camera.server.setName("MJPEG-Server-" + index);
+		camera.server.setPriority(Thread.MIN_PRIORITY);
+		camera.server.setQuality(config.streamQuality);
+
+		try {
+			openCamera(index, camera);
+		} catch (IOException | RuntimeException e) {
+			camera.server.close();
+			if (camera.source != null) {
+				camera.source.release();
+			}
+			throw e;
+		}
+
+		camera.server.start();
+		camera.loop.start();
+		camera.listener.start();
+
+		camera.lastReportTime = VisionUtil.getTime();
+		cameras.add(camera);
+	}
+
+	/**
+	 * Opens the source and creates the pipelines, vision loop and config listener
+	 * for a camera without starting them
+	 * 
+	 * @param index
+	 * @param camera
+	 * @throws IOException
+	 */
+	private void openCamera(int index, Camera camera) throws IOException {
+		CameraConfig config = camera.config;
+
+		int device = config.getDevice();
+		if (device >= 0) {
+			VideoCapture capture = new VideoCapture(device);
+			if (!capture.isOpened()) {
+				capture.release();
+				throw new IOException("Unable to open " + config.name);
+			}
+
+			updateV4L2(config);
+
+			capture.set(Videoio.CAP_PROP_FRAME_WIDTH, config.resolution.width);
+			capture.set(Videoio.CAP_PROP_FRAME_HEIGHT, config.resolution.height);
+			capture.set(Videoio.CAP_PROP_FPS, config.fps);
+
+			camera.source = new CameraFrameSource(capture);
+		} else {
+			camera.source = FrameSources.create(config.source, config.resolution, config.sourceFPS);
+		}
+
+		ConfigurablePipeline[] pipelines = new ConfigurablePipeline[config.pipelineConfigs.length];
+		for (int i = 0; i < pipelines.length; i++) {
+			if (config.pipelineType.equals("test")) {
+				pipelines[i] = new TestPipeline(config.pipelineConfigs[i], config.testImage);
+			} else {
+				pipelines[i] = new ConfigurablePipeline(config.pipelineConfigs[i]);
+			}
+		}
+		camera.pipeline = pipelines[0];
+
+		if (config.calibrationFile != null) {
+			// The camera still runs without angles if the calibration is missing
+			try {
+				CameraCalibration calibration = CameraCalibration.load(config.calibrationFile);
+				for (int i = 0; i < pipelines.length; i++) {
+					pipelines[i].setCalibration(calibration, config.resolution.width, config.resolution.height);
+				}
+				if (config.streamUndistort) {
+					camera.server.setCalibration(calibration);
+				}
+			} catch (IOException e) {
+				System.err.println("Error: Unable to load the calibration for " + config.name + " (" + e.getMessage()
+						+ ")");
+			}
+		}
+
+		// The staged pipeline and the gate only work with one pipeline
+		IVisionPipeline loopPipeline = camera.pipeline;
+		if (pipelines.length > 1) {
+			if (config.stagedPipeline || config.gateEnabled) {
+				System.err.println("Error: The staged pipeline and the change detection gate do not work with more "
+						+ "than one pipeline (" + config.name + ")");
+			}
+
+			camera.runner = new MultiPipelineRunner(pipelines, config.pipelineThreads, "Pipeline-" + index);
+			loopPipeline = camera.runner;
+		} else if (config.stagedPipeline) {
+			camera.stagedPipeline = new StagedPipeline(camera.pipeline, "Pipeline-" + index);
+			loopPipeline = camera.stagedPipeline;
+		}
+
+		if (pipelines.length == 1 && config.gateEnabled) {
+			// The staged pipeline returns older frames, so its results cannot be matched
+			// to the frame that was compared
+			if (config.stagedPipeline) {
+				System.err.println("Error: The change detection gate does not work with a staged pipeline ("
+						+ config.name + ")");
+			} else {
+				camera.gate = new ChangeDetectionGate(camera.pipeline, config.gateTolerance, config.gateMaxReuseAge);
+				loopPipeline = camera.gate;
+			}
+		}
+
+		UDPVisionOutputHandler outputHandler = new UDPVisionOutputHandler(config.outputAddress, config.outputPort,
+				index);
+
+		camera.loop = new VisionLoop(camera.server, camera.source, config.name, loopPipeline, outputHandler);
+
+		if (config.trackerEnabled) {
+			camera.loop.setTracker(config.tracker);
+		}
+
+		addMetrics(camera);
+		camera.loop.setLossless(device < 0);
+		camera.loop.setName("Vision-Loop-" + index);
+		camera.loop.setPriority(config.priority);
+
+		camera.listener = new ConfigListener(config.configPort, camera.pipeline);
+		camera.listener.setName("Config-Listener-" + index);
+		camera.listener.setPriority(Thread.MIN_PRIORITY);
+	}
+
+	/**
+	 * Starts every camera in the config. A camera that fails to start is skipped
+	 * so that the others keep working.
+	 * 
+	 * @param properties
+	 */
+	public void start(Properties properties) {
+		int count = Integer.parseInt(properties.getProperty("cameras", "1").trim());
+
+		// Shared by the streams of every camera
+		String maxMbps = properties.getProperty("stream.maxMbps", "0").trim();
+		try {
+			StreamBudget.setMaxBitrate(Double.parseDouble(maxMbps) * 1000000);
+		} catch (NumberFormatException e) {
+			System.err.println("Error: Invalid stream.maxMbps: " + maxMbps);
+		}
+
+		for (int i = 0; i < count; i++) {
+			CameraConfig config;
+			try {
+				config = CameraConfig.load(properties, i);
+			} catch (NumberFormatException e) {
+				System.err.println("Error: Invalid config for camera" + i);
+				continue;
+			}
+
+			try {
+				startCamera(i, config);
+			} catch (IOException | NumberFormatException e) {
+				System.err.println("Error: Unable to start " + config.name + " (" + e.getMessage() + ")");
+				continue;
+			}
+
+			System.out.println(config.name + " started");
+		}
+	}
+
+	/**
+	 * Loads a config file
+	 * 
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static Properties loadConfig(String file) throws IOException {
+		Properties properties = new Properties();
+
+		InputStream input = new FileInputStream(file);
+		try {
+			properties.load(input);
+		} finally {
+			input.close();
+		}
+
+		return properties;
+	}
+
+	public CameraManager() {
+		cameras = new ArrayList<Camera>();
+	}
+
+	private static class Camera {
+		private CameraConfig config;
+
+		private MJPEGServer server;
+		private IFrameSource source;
+		private ConfigurablePipeline pipeline;
+		private StagedPipeline stagedPipeline;
+		private ChangeDetectionGate gate;
+		private MultiPipelineRunner runner;
+		private MetricsRegistry metrics;
+		private VisionLoop loop;
+		private ConfigListener listener;
+
+		private long lastFrameCount;
+		private double lastReportTime;
+
+		private long lastLoopBytes;
+		private long lastEncoderBytes;
+		private long lastServerBytes;
+		private long lastEncodedFrames;
+	}
+}
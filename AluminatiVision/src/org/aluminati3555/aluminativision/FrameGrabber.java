@@ -0,0 +1,194 @@
+/**
+ * Copyright (c) 2019 Team 3555
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.aluminati3555.aluminativision;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.aluminati3555.aluminativision.source.IFrameSource;
+import org.aluminati3555.aluminativision.util.VisionUtil;
+import org.opencv.core.Mat;
+
+/**
+ * This thread grabs frames from a frame source and hands the newest one to the
+ * vision loop through a lock free triple buffer. Frames that are not taken
+ * before the next frame arrives are dropped instead of queued unless the
+ * grabber is lossless.
+ * 
+ * @author Caleb Heydon
+ */
+public class FrameGrabber extends Thread {
+	// The published index is stored with a flag that is set until it is taken
+	private static final int FRESH = 4;
+	private static final int INDEX_MASK = 3;
+
+	private static final long WAIT_TIMEOUT = 100000000;
+
+	private IFrameSource source;
+	private String cameraName;
+	private volatile boolean lossless;
+
+	private Mat[] buffers;
+	private double[] timestamps;
+	private long[] sequences;
+	private long grabbedFrames;
+
+	private AtomicInteger latest;
+	private int back;
+	private int front;
+
+	private volatile Thread consumer;
+	private volatile long droppedFrames;
+
+	private volatile boolean wantsExit;
+
+	/**
+	 * Returns the number of frames that were replaced before they were taken
+	 * 
+	 * @return
+	 */
+	public long getDroppedFrames() {
+		return droppedFrames;
+	}
+
+	/**
+	 * Returns the time the last taken frame was grabbed
+	 * 
+	 * @return
+	 */
+	public double getTimestamp() {
+		return timestamps[front];
+	}
+
+	/**
+	 * Returns the sequence number of the last taken frame
+	 * 
+	 * @return
+	 */
+	public long getSequence() {
+		return sequences[front];
+	}
+
+	/**
+	 * Makes the grabber wait for every frame to be taken instead of dropping
+	 * frames. This is meant for offline sources.
+	 * 
+	 * @param lossless
+	 */
+	public void setLossless(boolean lossless) {
+		this.lossless = lossless;
+	}
+
+	/**
+	 * Signals the grabber to stop
+	 * 
+	 * @param wantsExit
+	 */
+	public void setWantsExit(boolean wantsExit) {
+		this.wantsExit = wantsExit;
+	}
+
+	/**
+	 * Waits for a frame that has not been taken yet and returns it. The frame is
+	 * owned by the caller until the next call.
+	 * 
+	 * @return The newest frame or null if the grabber is stopping
+	 */
+	public Mat take() {
+		consumer = Thread.currentThread();
+
+		while ((latest.get() & FRESH) == 0) {
+			if (wantsExit) {
+				return null;
+			}
+
+			LockSupport.parkNanos(this, WAIT_TIMEOUT);
+		}
+
+		front = latest.getAndSet(front) & INDEX_MASK;
+		if (lossless) {
+			LockSupport.unpark(this);
+		}
+
+		return buffers[front];
+	}
+
+	/**
+	 * The start of the capture thread
+	 */
+	@Override
+	public void run() {
+		while (!wantsExit) {
+			if (!source.grab()) {
+				System.err.println("Error: Unable to grab frame from " + cameraName);
+				VisionUtil.sleep(0.1);
+				continue;
+			}
+
+			timestamps[back] = VisionUtil.getTime();
+			sequences[back] = grabbedFrames++;
+
+			if (!source.retrieve(buffers[back])) {
+				System.err.println("Error: Unable to retrieve frame from " + cameraName);
+				continue;
+			}
+
+			while (lossless && (latest.get() & FRESH) != 0 && !wantsExit) {
+				LockSupport.parkNanos(this, WAIT_TIMEOUT);
+			}
+
+			// Publish the new frame and reuse whichever buffer it replaced
+			int previous = latest.getAndSet(back | FRESH);
+			if ((previous & FRESH) != 0) {
+				droppedFrames++;
+			}
+			back = previous & INDEX_MASK;
+
+			Thread waiting = consumer;
+			if (waiting != null) {
+				LockSupport.unpark(waiting);
+			}
+		}
+
+		for (int i = 0; i < buffers.length; i++) {
+			buffers[i].release();
+		}
+	}
+
+	public FrameGrabber(IFrameSource source, String cameraName) {
+		this.source = source;
+		this.cameraName = cameraName;
+
+		buffers = new Mat[3];
+		for (int i = 0; i < buffers.length; i++) {
+			buffers[i] = new Mat();
+		}
+		timestamps = new double[3];
+		sequences = new long[3];
+
+		// Buffer 0 is being written, 1 is published, and 2 is being read
+		back = 0;
+		latest = new AtomicInteger(1);
+		front = 2;
+	}
+}
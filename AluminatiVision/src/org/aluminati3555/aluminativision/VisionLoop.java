@@ -24,14 +24,18 @@ package org.aluminati3555.aluminativision;
 
 import java.io.IOException;
 
+import org.aluminati3555.aluminativision.metrics.LatencyHistogram;
+import org.aluminati3555.aluminativision.metrics.MetricsRegistry;
 import org.aluminati3555.aluminativision.net.IVisionOutputHandler;
 import org.aluminati3555.aluminativision.net.MJPEGServer;
+import org.aluminati3555.aluminativision.net.StreamView;
 import org.aluminati3555.aluminativision.net.VisionData;
 import org.aluminati3555.aluminativision.pipeline.IVisionPipeline;
+import org.aluminati3555.aluminativision.source.IFrameSource;
+import org.aluminati3555.aluminativision.tracking.TargetTracker;
 import org.aluminati3555.aluminativision.util.VisionUtil;
 import org.opencv.core.CvException;
 import org.opencv.core.Mat;
-import org.opencv.videoio.VideoCapture;
 
 /**
  * This is a simple vision loop
@@ -41,13 +45,21 @@ import org.opencv.videoio.VideoCapture;
 public class VisionLoop extends Thread {
 	private MJPEGServer server;
 
-	private VideoCapture camera;
+	private FrameGrabber grabber;
 	private String cameraName;
 	private IVisionPipeline visionPipeline;
 	private IVisionOutputHandler visionOutputHandler;
+	private TargetTracker tracker;
 
 	private double lastTime;
-	private double currentFPS;
+	private volatile double currentFPS;
+	private volatile long frameCount;
+
+	private LatencyHistogram captureWaitTime;
+	private LatencyHistogram processTime;
+	private LatencyHistogram trackingTime;
+	private LatencyHistogram outputSendTime;
+	private LatencyHistogram captureToWireTime;
 
 	private boolean wantsExit;
 
@@ -69,6 +81,66 @@ public class VisionLoop extends Thread {
 		this.visionPipeline = visionPipeline;
 	}
 
+	/**
+	 * Returns the number of frames the loop was too slow to process
+	 * 
+	 * @return
+	 */
+	public long getDroppedFrames() {
+		return grabber.getDroppedFrames();
+	}
+
+	/**
+	 * Returns the number of frames that have been processed
+	 * 
+	 * @return
+	 */
+	public long getFrameCount() {
+		return frameCount;
+	}
+
+	/**
+	 * Returns the current FPS of the loop
+	 * 
+	 * @return
+	 */
+	public double getFPS() {
+		return currentFPS;
+	}
+
+	/**
+	 * Sets the tracker that filters the target info before it is sent
+	 * 
+	 * @param tracker The tracker or null to send the pipeline output as it is
+	 */
+	public void setTracker(TargetTracker tracker) {
+		this.tracker = tracker;
+	}
+
+	/**
+	 * Processes every frame from the source instead of dropping frames when the
+	 * loop falls behind
+	 * 
+	 * @param lossless
+	 */
+	public void setLossless(boolean lossless) {
+		grabber.setLossless(lossless);
+	}
+
+	/**
+	 * Sets where the time spent waiting for frames, processing and sending output
+	 * is recorded
+	 * 
+	 * @param metrics
+	 */
+	public void setMetrics(MetricsRegistry metrics) {
+		captureWaitTime = metrics.getHistogram(MetricsRegistry.CAPTURE_WAIT);
+		processTime = metrics.getHistogram(MetricsRegistry.PROCESS);
+		trackingTime = metrics.getHistogram(MetricsRegistry.TRACKING);
+		outputSendTime = metrics.getHistogram(MetricsRegistry.OUTPUT_SEND);
+		captureToWireTime = metrics.getHistogram(MetricsRegistry.CAPTURE_TO_WIRE);
+	}
+
 	/**
 	 * Signals the vision loop to stop
 	 * 
@@ -76,6 +148,7 @@ public class VisionLoop extends Thread {
 	 */
 	public synchronized void setWantsExit(boolean wantsExit) {
 		this.wantsExit = wantsExit;
+		grabber.setWantsExit(wantsExit);
 	}
 
 	/**
@@ -83,50 +156,78 @@ public class VisionLoop extends Thread {
 	 */
 	@Override
 	public void run() {
+		// The grabber runs at the priority of the loop (the camera's priority)
+		grabber.setPriority(getPriority());
+		grabber.start();
+
 		lastTime = VisionUtil.getTime();
-		Mat frame = new Mat();
+		Mat frame;
 		Mat outputFrame;
 		
 		while (!wantsExit) {
-			camera.read(frame);
+			long time = System.nanoTime();
+			frame = grabber.take();
+			if (frame == null) {
+				continue;
+			}
+			double captureTime = grabber.getTimestamp();
+			long sequence = grabber.getSequence();
+			time = captureWaitTime.recordSince(time);
+
+			// The frame is only annotated while someone is watching it
+			visionPipeline.setAnnotating(server.hasClients(StreamView.ANNOTATED));
 
-			double startTime = VisionUtil.getTime();
 			try {
-				outputFrame = visionPipeline.process(frame, currentFPS);
+				outputFrame = visionPipeline.process(frame, currentFPS, captureTime, sequence);
 			} catch (CvException e) {
 				System.err.println("Error: Unable to process frame from " + cameraName);
 				e.printStackTrace();
 				continue;
 			}
-
-			double endTime = VisionUtil.getTime();
-
-			// Get vision output
-			VisionData output = visionPipeline.getOutput();
-			output.timestamp = startTime;
-			output.processingLatency = endTime - startTime;
-			try {
-				visionOutputHandler.update(output);
-			} catch (IOException e) {
-				
+			time = processTime.recordSince(time);
+
+			// Send the output of every pipeline (the tracker follows the first one)
+			double pipelineTimestamp = VisionUtil.getTime();
+			int outputCount = visionPipeline.getOutputCount();
+			for (int i = 0; i < outputCount; i++) {
+				VisionData output = visionPipeline.getOutput(i);
+				output.pipelineTimestamp = pipelineTimestamp;
+				if (i == 0 && tracker != null) {
+					tracker.update(output, VisionUtil.getTime());
+					time = trackingTime.recordSince(time);
+				}
+				try {
+					visionOutputHandler.update(output);
+				} catch (IOException e) {
+					
+				}
 			}
+			outputSendTime.recordSince(time);
+			captureToWireTime.record((long) (visionPipeline.getOutput().latency * 1000000000));
 
-			server.sendFrame(outputFrame, currentFPS);
+			// Views without clients are not copied
+			server.sendFrame(StreamView.RAW, frame, currentFPS);
+			server.sendFrame(StreamView.THRESHOLD, visionPipeline.getThresholdFrame(), currentFPS);
+			server.sendFrame(StreamView.ANNOTATED, outputFrame, currentFPS);
 
-			endTime = VisionUtil.getTime();
+			frameCount++;
+
+			double endTime = VisionUtil.getTime();
 			currentFPS = 1 / (endTime - lastTime);
 			lastTime = endTime;
 		}
-
-		frame.release();
 	}
 
-	public VisionLoop(MJPEGServer server, VideoCapture camera, String cameraName, IVisionPipeline pipeline,
+	public VisionLoop(MJPEGServer server, IFrameSource source, String cameraName, IVisionPipeline pipeline,
 			IVisionOutputHandler visionOutputHandler) {
 		this.server = server;
-		this.camera = camera;
+		this.grabber = new FrameGrabber(source, cameraName);
 		this.cameraName = cameraName;
 		this.visionPipeline = pipeline;
 		this.visionOutputHandler = visionOutputHandler;
+
+		setMetrics(new MetricsRegistry(cameraName));
+
+		grabber.setName("Frame-Grabber-" + cameraName);
 	}
 }
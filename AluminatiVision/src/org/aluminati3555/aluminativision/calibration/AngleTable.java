@@ -0,0 +1,98 @@
+/**
+ * Copyright (c) 2019 Team 3555
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.aluminati3555.aluminativision.calibration;
+
+/**
+ * This class holds the yaw and pitch of every pixel of a frame in degrees so
+ * that angles can be found without any trigonometry or undistortion per frame.
+ * Positions between pixels are interpolated. Yaw is positive to the right and
+ * pitch is positive up.
+ * 
+ * @author Caleb Heydon
+ */
+public class AngleTable {
+	public final CameraCalibration calibration;
+	public final int width;
+	public final int height;
+
+	// Indexed by y * width + x (the angles of the pixel centers)
+	public final float[] yaw;
+	public final float[] pitch;
+
+	/**
+	 * Interpolates a table at a position. Positions outside of the frame use the
+	 * closest edge.
+	 * 
+	 * @param table
+	 * @param x     Position in the frame (the first pixel covers 0 to 1)
+	 * @param y
+	 * @return
+	 */
+	private double interpolate(float[] table, double x, double y) {
+		// The table is indexed by pixel centers
+		x = Math.min(Math.max(x - 0.5, 0), width - 1);
+		y = Math.min(Math.max(y - 0.5, 0), height - 1);
+
+		int x1 = Math.min((int) x, width - 2);
+		int y1 = Math.min((int) y, height - 2);
+		double fractionX = x - x1;
+		double fractionY = y - y1;
+
+		int index = y1 * width + x1;
+		double top = table[index] + (table[index + 1] - table[index]) * fractionX;
+		double bottom = table[index + width] + (table[index + width + 1] - table[index + width]) * fractionX;
+
+		return top + (bottom - top) * fractionY;
+	}
+
+	/**
+	 * Returns the yaw of a position in the frame in degrees
+	 * 
+	 * @param x Position in the frame (the first pixel covers 0 to 1)
+	 * @param y
+	 * @return
+	 */
+	public double getYaw(double x, double y) {
+		return interpolate(yaw, x, y);
+	}
+
+	/**
+	 * Returns the pitch of a position in the frame in degrees
+	 * 
+	 * @param x Position in the frame (the first pixel covers 0 to 1)
+	 * @param y
+	 * @return
+	 */
+	public double getPitch(double x, double y) {
+		return interpolate(pitch, x, y);
+	}
+
+	public AngleTable(CameraCalibration calibration, int width, int height) {
+		this.calibration = calibration;
+		this.width = width;
+		this.height = height;
+
+		yaw = new float[width * height];
+		pitch = new float[width * height];
+	}
+}
@@ -0,0 +1,173 @@
+/**
+ * Copyright (c) 2019 Team 3555
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.aluminati3555.aluminativision.calibration;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.opencv.calib3d.Calib3d;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.MatOfPoint3f;
+import org.opencv.core.Point3;
+import org.opencv.core.Size;
+import org.opencv.core.TermCriteria;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Calibrates a camera from a folder of chessboard images and saves the result
+ * for the camera's calibration setting. This runs offline (on the Pi or any
+ * other computer with OpenCV).
+ * 
+ * Usage: CalibrationTool [image directory] [inner corners across] [inner
+ * corners down] [output file]
+ * 
+ * @author Caleb Heydon
+ */
+public class CalibrationTool {
+	static {
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+	}
+
+	/**
+	 * Calibrates a camera from chessboard images. Images where the board is not
+	 * found are skipped.
+	 * 
+	 * @param files
+	 * @param boardSize Number of inner corners across and down
+	 * @return
+	 * @throws IOException
+	 */
+	public static CameraCalibration calibrate(File[] files, Size boardSize) throws IOException {
+		// Corners of the board on its own plane (the size of a square does not
+		// change the intrinsics)
+		MatOfPoint3f boardPoints = new MatOfPoint3f();
+		Point3[] corners = new Point3[(int) (boardSize.width * boardSize.height)];
+		for (int i = 0; i < corners.length; i++) {
+			corners[i] = new Point3(i % (int) boardSize.width, i / (int) boardSize.width, 0);
+		}
+		boardPoints.fromArray(corners);
+
+		ArrayList<Mat> objectPoints = new ArrayList<Mat>();
+		ArrayList<Mat> imagePoints = new ArrayList<Mat>();
+		Size imageSize = null;
+
+		TermCriteria criteria = new TermCriteria(TermCriteria.EPS + TermCriteria.MAX_ITER, 30, 0.001);
+		Mat gray = new Mat();
+
+		for (int i = 0; i < files.length; i++) {
+			Mat image = Imgcodecs.imread(files[i].getPath());
+			if (image.empty()) {
+				continue;
+			}
+
+			if (imageSize == null) {
+				imageSize = image.size();
+			} else if (image.width() != (int) imageSize.width || image.height() != (int) imageSize.height) {
+				System.err.println("Warning: Skipping " + files[i].getName() + " (different resolution)");
+				image.release();
+				continue;
+			}
+
+			Imgproc.cvtColor(image, gray, Imgproc.COLOR_BGR2GRAY);
+			image.release();
+
+			MatOfPoint2f imageCorners = new MatOfPoint2f();
+			boolean found = Calib3d.findChessboardCorners(gray, boardSize, imageCorners,
+					Calib3d.CALIB_CB_ADAPTIVE_THRESH + Calib3d.CALIB_CB_NORMALIZE_IMAGE);
+			if (!found) {
+				System.out.println(files[i].getName() + ": board not found");
+				imageCorners.release();
+				continue;
+			}
+
+			Imgproc.cornerSubPix(gray, imageCorners, new Size(5, 5), new Size(-1, -1), criteria);
+			objectPoints.add(boardPoints);
+			imagePoints.add(imageCorners);
+			System.out.println(files[i].getName() + ": board found");
+		}
+		gray.release();
+
+		if (imagePoints.size() < 3) {
+			throw new IOException("The board was found in " + imagePoints.size() + " images (at least 3 are needed)");
+		}
+
+		Mat cameraMatrix = Mat.eye(3, 3, CvType.CV_64F);
+		Mat distortion = Mat.zeros(5, 1, CvType.CV_64F);
+		ArrayList<Mat> rotations = new ArrayList<Mat>();
+		ArrayList<Mat> translations = new ArrayList<Mat>();
+
+		CameraCalibration calibration = new CameraCalibration();
+		calibration.error = Calib3d.calibrateCamera(objectPoints, imagePoints, imageSize, cameraMatrix, distortion,
+				rotations, translations);
+
+		calibration.width = (int) imageSize.width;
+		calibration.height = (int) imageSize.height;
+		calibration.fx = cameraMatrix.get(0, 0)[0];
+		calibration.fy = cameraMatrix.get(1, 1)[0];
+		calibration.cx = cameraMatrix.get(0, 2)[0];
+		calibration.cy = cameraMatrix.get(1, 2)[0];
+		for (int i = 0; i < calibration.distortion.length; i++) {
+			calibration.distortion[i] = distortion.get(i, 0)[0];
+		}
+
+		return calibration;
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 4) {
+			System.err.println(
+					"Usage: CalibrationTool [image directory] [inner corners across] [inner corners down] [output file]");
+			System.exit(-1);
+		}
+
+		File[] files = new File(args[0]).listFiles();
+		if (files == null) {
+			System.err.println("Error: Unable to read " + args[0]);
+			System.exit(-1);
+		}
+		Arrays.sort(files);
+
+		Size boardSize = new Size(Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+
+		try {
+			CameraCalibration calibration = calibrate(files, boardSize);
+			calibration.save(args[3]);
+
+			System.out.println("Resolution: " + calibration.width + "x" + calibration.height);
+			System.out.println("Focal length: " + calibration.fx + ", " + calibration.fy);
+			System.out.println("Principal point: " + calibration.cx + ", " + calibration.cy);
+			System.out.println("Distortion: " + Arrays.toString(calibration.distortion));
+			System.out.println("RMS error: " + calibration.error + " pixels");
+			System.out.println("Saved to " + args[3]);
+		} catch (IOException e) {
+			System.err.println("Error: " + e.getMessage());
+			System.exit(-1);
+		}
+	}
+}
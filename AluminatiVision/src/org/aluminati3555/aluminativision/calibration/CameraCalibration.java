@@ -0,0 +1,244 @@
+/**
+ * Copyright (c) 2019 Team 3555
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.aluminati3555.aluminativision.calibration;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import org.opencv.calib3d.Calib3d;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDouble;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Size;
+
+/**
+ * This class holds the intrinsics and distortion coefficients of a camera. It
+ * is saved as a properties file by the CalibrationTool. Frames at a different
+ * resolution than the calibration (with the same aspect ratio) are handled by
+ * scaling the camera matrix.
+ * 
+ * @author Caleb Heydon
+ */
+public class CameraCalibration {
+	// Resolution of the calibration images
+	public int width;
+	public int height;
+
+	// Focal lengths and principal point in pixels
+	public double fx;
+	public double fy;
+	public double cx;
+	public double cy;
+
+	// k1, k2, p1, p2, k3
+	public double[] distortion = new double[5];
+
+	// RMS reprojection error in pixels
+	public double error;
+
+	/**
+	 * Returns the camera matrix scaled to a resolution
+	 * 
+	 * @param width
+	 * @param height
+	 * @return
+	 */
+	public Mat getCameraMatrix(int width, int height) {
+		double scaleX = (double) width / this.width;
+		double scaleY = (double) height / this.height;
+
+		// Pixel centers are at whole numbers, so the principal point is scaled
+		// about the corner of the first pixel
+		Mat cameraMatrix = Mat.zeros(3, 3, CvType.CV_64F);
+		cameraMatrix.put(0, 0, fx * scaleX, 0, (cx + 0.5) * scaleX - 0.5);
+		cameraMatrix.put(1, 0, 0, fy * scaleY, (cy + 0.5) * scaleY - 0.5);
+		cameraMatrix.put(2, 0, 0, 0, 1);
+
+		return cameraMatrix;
+	}
+
+	/**
+	 * Returns the distortion coefficients
+	 * 
+	 * @return
+	 */
+	public MatOfDouble getDistortion() {
+		return new MatOfDouble(distortion);
+	}
+
+	/**
+	 * Computes the maps that remap a frame to remove the distortion. The maps are
+	 * passed to Imgproc.remap.
+	 * 
+	 * @param width
+	 * @param height
+	 * @param map1
+	 * @param map2
+	 */
+	public void createUndistortMaps(int width, int height, Mat map1, Mat map2) {
+		Mat cameraMatrix = getCameraMatrix(width, height);
+		MatOfDouble distortion = getDistortion();
+
+		Calib3d.initUndistortRectifyMap(cameraMatrix, distortion, new Mat(), cameraMatrix, new Size(width, height),
+				CvType.CV_16SC2, map1, map2);
+
+		cameraMatrix.release();
+		distortion.release();
+	}
+
+	/**
+	 * Computes the yaw and pitch of every pixel
+	 * 
+	 * @param width
+	 * @param height
+	 * @return
+	 */
+	public AngleTable createAngleTable(int width, int height) {
+		int total = width * height;
+
+		// Undistort every pixel at once
+		float[] pixels = new float[total * 2];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int index = (y * width + x) * 2;
+				pixels[index] = x;
+				pixels[index + 1] = y;
+			}
+		}
+
+		MatOfPoint2f points = new MatOfPoint2f();
+		points.alloc(total);
+		points.put(0, 0, pixels);
+
+		Mat cameraMatrix = getCameraMatrix(width, height);
+		MatOfDouble distortion = getDistortion();
+		MatOfPoint2f normalized = new MatOfPoint2f();
+		Calib3d.undistortPoints(points, normalized, cameraMatrix, distortion);
+		normalized.get(0, 0, pixels);
+
+		points.release();
+		normalized.release();
+		cameraMatrix.release();
+		distortion.release();
+
+		// The points are now on the plane one unit in front of the camera
+		AngleTable table = new AngleTable(this, width, height);
+		for (int i = 0; i < total; i++) {
+			double x = pixels[i * 2];
+			double y = pixels[i * 2 + 1];
+
+			table.yaw[i] = (float) Math.toDegrees(Math.atan(x));
+			table.pitch[i] = (float) Math.toDegrees(Math.atan2(-y, Math.sqrt(1 + x * x)));
+		}
+
+		return table;
+	}
+
+	/**
+	 * Parses a list of numbers separated by commas
+	 * 
+	 * @param value
+	 * @return
+	 */
+	private static double[] parseList(String value) {
+		String[] parts = value.split(",");
+		double[] values = new double[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			values[i] = Double.parseDouble(parts[i].trim());
+		}
+
+		return values;
+	}
+
+	/**
+	 * Loads a calibration file
+	 * 
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static CameraCalibration load(String file) throws IOException {
+		Properties properties = new Properties();
+
+		InputStream input = new FileInputStream(file);
+		try {
+			properties.load(input);
+		} finally {
+			input.close();
+		}
+
+		CameraCalibration calibration = new CameraCalibration();
+		try {
+			calibration.width = Integer.parseInt(properties.getProperty("width").trim());
+			calibration.height = Integer.parseInt(properties.getProperty("height").trim());
+			calibration.fx = Double.parseDouble(properties.getProperty("fx").trim());
+			calibration.fy = Double.parseDouble(properties.getProperty("fy").trim());
+			calibration.cx = Double.parseDouble(properties.getProperty("cx").trim());
+			calibration.cy = Double.parseDouble(properties.getProperty("cy").trim());
+			calibration.distortion = parseList(properties.getProperty("distortion", "0, 0, 0, 0, 0"));
+			calibration.error = Double.parseDouble(properties.getProperty("error", "0").trim());
+		} catch (NullPointerException | NumberFormatException e) {
+			throw new IOException("Invalid calibration file " + file);
+		}
+
+		return calibration;
+	}
+
+	/**
+	 * Saves the calibration to a file
+	 * 
+	 * @param file
+	 * @throws IOException
+	 */
+	public void save(String file) throws IOException {
+		Properties properties = new Properties();
+		properties.setProperty("width", "" + width);
+		properties.setProperty("height", "" + height);
+		properties.setProperty("fx", "" + fx);
+		properties.setProperty("fy", "" + fy);
+		properties.setProperty("cx", "" + cx);
+		properties.setProperty("cy", "" + cy);
+
+		StringBuilder list = new StringBuilder();
+		for (int i = 0; i < distortion.length; i++) {
+			if (i > 0) {
+				list.append(", ");
+			}
+			list.append(distortion[i]);
+		}
+		properties.setProperty("distortion", list.toString());
+		properties.setProperty("error", "" + error);
+
+		OutputStream output = new FileOutputStream(file);
+		try {
+			properties.store(output, "AluminatiVision camera calibration");
+		} finally {
+			output.close();
+		}
+	}
+}
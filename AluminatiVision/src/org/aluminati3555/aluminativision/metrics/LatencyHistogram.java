@@ -0,0 +1,181 @@
+/**
+ * Copyright (c) 2019 Team 3555
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.aluminati3555.aluminativision.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A latency histogram with fixed buckets. Each power of two microseconds is
+ * split into eight buckets, so a reported percentile is within 12.5% of the
+ * real value. Recording does not allocate and is meant to be done by a single
+ * thread while any thread reads.
+ * 
+ * @author Caleb Heydon
+ */
+public class LatencyHistogram {
+	private static final int SUB_BUCKETS = 8;
+	private static final int BUCKET_COUNT = 2 * SUB_BUCKETS + 30 * SUB_BUCKETS;
+
+	private AtomicLongArray buckets;
+	private AtomicLong count;
+	private AtomicLong max;
+
+	// Smoothed difference between consecutive samples (like RFC 3550)
+	private AtomicLong jitter;
+	private long lastValue;
+
+	/**
+	 * Returns the bucket for a value in microseconds
+	 * 
+	 * @param micros
+	 * @return
+	 */
+	private static int getBucket(long micros) {
+		if (micros < 2 * SUB_BUCKETS) {
+			return (int) micros;
+		}
+
+		int shift = 63 - Long.numberOfLeadingZeros(micros) - 3;
+		int mantissa = (int) (micros >>> shift);
+		int bucket = 2 * SUB_BUCKETS + (shift - 1) * SUB_BUCKETS + (mantissa - SUB_BUCKETS);
+
+		return Math.min(bucket, BUCKET_COUNT - 1);
+	}
+
+	/**
+	 * Returns the largest value in microseconds that falls in a bucket
+	 * 
+	 * @param bucket
+	 * @return
+	 */
+	private static long getBucketLimit(int bucket) {
+		if (bucket < 2 * SUB_BUCKETS) {
+			return bucket;
+		}
+
+		int shift = (bucket - 2 * SUB_BUCKETS) / SUB_BUCKETS + 1;
+		long mantissa = (bucket - 2 * SUB_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+
+		return ((mantissa + 1) << shift) - 1;
+	}
+
+	/**
+	 * Records a time
+	 * 
+	 * @param nanos
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+
+		int bucket = getBucket(nanos / 1000);
+		buckets.lazySet(bucket, buckets.get(bucket) + 1);
+		count.lazySet(count.get() + 1);
+
+		if (nanos > max.get()) {
+			max.lazySet(nanos);
+		}
+
+		long difference = Math.abs(nanos - lastValue);
+		long currentJitter = jitter.get();
+		jitter.lazySet(currentJitter + (difference - currentJitter) / 16);
+		lastValue = nanos;
+	}
+
+	/**
+	 * Records the time since a start time from System.nanoTime()
+	 * 
+	 * @param startTime
+	 * @return The current time
+	 */
+	public long recordSince(long startTime) {
+		long time = System.nanoTime();
+		record(time - startTime);
+
+		return time;
+	}
+
+	/**
+	 * Returns the number of recorded times
+	 * 
+	 * @return
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Returns the largest recorded time in nanoseconds
+	 * 
+	 * @return
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Returns the jitter in nanoseconds
+	 * 
+	 * @return
+	 */
+	public long getJitter() {
+		return jitter.get();
+	}
+
+	/**
+	 * Returns a percentile in nanoseconds
+	 * 
+	 * @param percentile Between 0 and 1
+	 * @return
+	 */
+	public long getPercentile(double percentile) {
+		long total = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			total += buckets.get(i);
+		}
+
+		if (total == 0) {
+			return 0;
+		}
+
+		long target = (long) Math.ceil(percentile * total);
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += buckets.get(i);
+			if (seen >= target) {
+				return Math.min(getBucketLimit(i) * 1000 + 999, max.get());
+			}
+		}
+
+		return max.get();
+	}
+
+	public LatencyHistogram() {
+		buckets = new AtomicLongArray(BUCKET_COUNT);
+		count = new AtomicLong();
+		max = new AtomicLong();
+		jitter = new AtomicLong();
+	}
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright (c) 2019 Team 3555
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.aluminati3555.aluminativision.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.DoubleSupplier;
+
+/**
+ * This class holds the latency histograms and gauges for one camera and writes
+ * them as plain text
+ * 
+ * @author Caleb Heydon
+ */
+public class MetricsRegistry {
+	// Stage names
+	public static final String CAPTURE_WAIT = "capture_wait";
+	public static final String COARSE_SEARCH = "coarse_search";
+	public static final String COLOR_CONVERT = "color_convert";
+	public static final String THRESHOLD = "threshold";
+	public static final String MORPHOLOGY = "morphology";
+	public static final String CONTOURS = "contours";
+	public static final String FILTERING = "filtering";
+	public static final String ANNOTATE = "annotate";
+	public static final String CHANGE_DETECTION = "change_detection";
+	public static final String PROCESS = "process";
+	public static final String TRACKING = "tracking";
+	public static final String OUTPUT_SEND = "output_send";
+	public static final String STREAM_ENCODE = "stream_encode";
+
+	// Age of the target info when it is sent (grab to send)
+	public static final String CAPTURE_TO_WIRE = "capture_to_wire";
+
+	private static final String PREFIX = "aluminativision_";
+
+	private String camera;
+
+	private LinkedHashMap<String, LatencyHistogram> histograms;
+	private LinkedHashMap<String, DoubleSupplier> gauges;
+
+	/**
+	 * Returns the name of the camera
+	 * 
+	 * @return
+	 */
+	public String getCamera() {
+		return camera;
+	}
+
+	/**
+	 * Returns the histogram for a stage and creates it if it does not exist. Look
+	 * histograms up once and keep them since this is not meant for every frame.
+	 * 
+	 * @param stage
+	 * @return
+	 */
+	public synchronized LatencyHistogram getHistogram(String stage) {
+		LatencyHistogram histogram = histograms.get(stage);
+		if (histogram == null) {
+			histogram = new LatencyHistogram();
+			histograms.put(stage, histogram);
+		}
+
+		return histogram;
+	}
+
+	/**
+	 * Adds a value that is read when the metrics are written
+	 * 
+	 * @param name
+	 * @param gauge
+	 */
+	public synchronized void addGauge(String name, DoubleSupplier gauge) {
+		gauges.put(name, gauge);
+	}
+
+	/**
+	 * Writes a time in milliseconds
+	 * 
+	 * @param builder
+	 * @param name
+	 * @param stage
+	 * @param quantile
+	 * @param nanos
+	 */
+	private void writeTime(StringBuilder builder, String name, String stage, String quantile, long nanos) {
+		builder.append(PREFIX).append(name).append("{camera=\"").append(camera).append("\",stage=\"").append(stage);
+		if (quantile != null) {
+			builder.append("\",quantile=\"").append(quantile);
+		}
+		builder.append("\"} ").append(nanos / 1000000.0).append('\n');
+	}
+
+	/**
+	 * Writes every metric as text
+	 * 
+	 * @param builder
+	 */
+	public synchronized void write(StringBuilder builder) {
+		for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+			String stage = entry.getKey();
+			LatencyHistogram histogram = entry.getValue();
+
+			writeTime(builder, "latency_ms", stage, "0.5", histogram.getPercentile(0.5));
+			writeTime(builder, "latency_ms", stage, "0.99", histogram.getPercentile(0.99));
+			writeTime(builder, "latency_ms", stage, "0.999", histogram.getPercentile(0.999));
+			writeTime(builder, "latency_ms", stage, "max", histogram.getMax());
+			writeTime(builder, "jitter_ms", stage, null, histogram.getJitter());
+
+			builder.append(PREFIX).append("latency_count{camera=\"").append(camera).append("\",stage=\"")
+					.append(stage).append("\"} ").append(histogram.getCount()).append('\n');
+		}
+
+		for (Map.Entry<String, DoubleSupplier> entry : gauges.entrySet()) {
+			builder.append(PREFIX).append(entry.getKey()).append("{camera=\"").append(camera).append("\"} ")
+					.append(entry.getValue().getAsDouble()).append('\n');
+		}
+	}
+
+	public MetricsRegistry(String camera) {
+		this.camera = camera;
+
+		histograms = new LinkedHashMap<String, LatencyHistogram>();
+		gauges = new LinkedHashMap<String, DoubleSupplier>();
+	}
+}
@@ -56,7 +56,8 @@ public class ConfigListener extends Thread {
 				ByteArrayInputStream byteInput = new ByteArrayInputStream(buffer);
 				DataInputStream input = new DataInputStream(byteInput);
 				
-				PipelineConfig config = new PipelineConfig();
+				// Settings that are not sent over the network are kept
+				PipelineConfig config = pipeline.getPipelineConfig().copy();
 				config.pipelineMode = input.readBoolean() ? PipelineMode.PROCESSING : PipelineMode.DRIVER;
 				
 				switch (input.readInt()) {
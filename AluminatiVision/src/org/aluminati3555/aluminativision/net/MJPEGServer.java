@@ -23,187 +23,1046 @@
 package org.aluminati3555.aluminativision.net;
 
 import java.io.IOException;
-import java.io.OutputStream;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.text.DecimalFormat;
-import java.util.Vector;
-import java.util.concurrent.CompletableFuture;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
 
 import org.aluminati3555.aluminativision.CameraResolution;
-import org.aluminati3555.aluminativision.util.VisionUtil;
+import org.aluminati3555.aluminativision.calibration.CameraCalibration;
+import org.aluminati3555.aluminativision.metrics.MetricsRegistry;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfByte;
-import org.opencv.core.MatOfInt;
-import org.opencv.core.Point;
-import org.opencv.core.Scalar;
-import org.opencv.imgcodecs.Imgcodecs;
-import org.opencv.imgproc.Imgproc;
 
 /**
- * This is a simple mjpeg server for streaming video to the driver station
+ * This is a simple mjpeg server for streaming video to the driver station. One
+ * thread serves every client with non-blocking writes, and a client that has
+ * not finished the last frame skips new frames until it catches up, so a slow
+ * client never holds up the others. Each client's throughput is measured, and
+ * clients that fall behind or use more than their part of the stream budget are
+ * moved to a lower jpeg quality, size or frame rate.
+ * 
+ * The camera frame, the thresholded frame and the annotated frame each have
+ * their own encoder, and a view is only encoded while a client wants it.
  * 
  * @author Caleb Heydon
  */
 public class MJPEGServer extends Thread {
 	private static final String SERVER_NAME = "MJPEGServer";
-	private static final int STREAM_COMPRESSION = 50;
-	
-	private static final Scalar GREEN = new Scalar(0, 255, 0);
+
+	private static final int REQUEST_TIMEOUT = 1000;
+	private static final int MAX_REQUEST_LINE = 1024;
+
+	// Clients that take this long to accept any bytes are disconnected
+	private static final int CLIENT_TIMEOUT = 10000;
+	private static final int SELECT_TIMEOUT = 100;
+
+	// Frames that are not in use are kept for the next jpegs (each client holds
+	// at most one)
+	private static final int FRAME_POOL_SIZE = 8;
+
+	// Keeps the kernel from queueing many frames for a slow client, so that its
+	// backlog shows up here and old frames are skipped instead
+	private static final int SEND_BUFFER_SIZE = 64 * 1024;
+
+	// A client moves down an operating point when it skips more than this
+	// fraction of its frames in a second. It moves back up when the better point
+	// should fit in this fraction of its budget for enough seconds in a row. The
+	// wait doubles when a move up does not last and halves when it does.
+	private static final double MAX_DROP_FRACTION = 0.1;
+	private static final double UPGRADE_HEADROOM = 0.8;
+	private static final int MIN_UPGRADE_WAIT = 3;
+	private static final int MAX_UPGRADE_WAIT = 30;
+
+	// Snapshots older than this wait for the next frame instead, and clients that
+	// wait this long for it are closed
+	private static final int SNAPSHOT_MAX_AGE = 1000;
+
+	private static final byte[] STREAM_RESPONSE = ("HTTP/1.0 200 OK\r\nServer: " + SERVER_NAME
+			+ "\r\nContent-Type: multipart/x-mixed-replace; boundary=--BoundaryString\r\n\r\n").getBytes();
+	private static final byte[] SNAPSHOT_UNAVAILABLE_RESPONSE = ("HTTP/1.0 503 Service Unavailable\r\nServer: "
+			+ SERVER_NAME + "\r\nContent-Length: 0\r\n\r\n").getBytes();
+	private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+	private static final StreamView[] VIEWS = StreamView.values();
+
+	private ServerSocketChannel serverChannel;
+	private Selector selector;
+	private ArrayList<ClientHandler> clients;
+	private ByteBuffer discardBuffer;
+
+	private CameraResolution resolution;
+	private volatile int quality;
+
+	// The frame rate of clients that do not ask for one (0 to follow the camera)
+	private double streamFPS;
+
+	private StreamEncoder[] encoders;
+	private MetricsRegistry metrics;
+
+	// The variants of each view that clients are using
+	private ArrayList<StreamVariant>[] variants;
+	private ArrayBlockingQueue<SharedFrame> framePool;
+
+	// The last jpeg of each view and when it was encoded
+	private SharedFrame[] snapshots;
+	private long[] snapshotTimes;
+
+	private volatile int clientCount;
+	private volatile int streamingClients;
+	private volatile int variantCount;
+	private volatile long slowClientDrops;
+	private volatile long bytesSent;
+	private volatile double bytesPerSecond;
+
+	private long rateTime;
+	private long rateBytes;
 
 	/**
-	 * Compresses an image
+	 * Returns the encoder for the annotated stream
 	 * 
-	 * @param mat
+	 * @return
 	 */
-	private static void compress(Mat mat) {
-		MatOfByte matOfByte = new MatOfByte();
-		MatOfInt params = new MatOfInt(Imgcodecs.IMWRITE_JPEG_QUALITY, STREAM_COMPRESSION);
-		Imgcodecs.imencode(".jpg", mat, matOfByte, params);
-		params.release();
+	public StreamEncoder getEncoder() {
+		return encoders[StreamView.ANNOTATED.ordinal()];
+	}
 
-		Mat output = Imgcodecs.imdecode(matOfByte, Imgcodecs.IMREAD_COLOR);
-		output.copyTo(mat);
-		output.release();
+	/**
+	 * Returns the encoder for each view
+	 * 
+	 * @return
+	 */
+	public StreamEncoder[] getEncoders() {
+		return encoders;
+	}
+
+	/**
+	 * Sets the metrics that are served at /metrics
+	 * 
+	 * @param metrics
+	 */
+	public void setMetrics(MetricsRegistry metrics) {
+		this.metrics = metrics;
+		for (int i = 0; i < encoders.length; i++) {
+			encoders[i].setMetrics(metrics);
+		}
+	}
+
+	/**
+	 * Sets the jpeg quality for clients with enough bandwidth that do not ask for
+	 * one
+	 * 
+	 * @param quality From 0 to 100
+	 */
+	public void setQuality(int quality) {
+		this.quality = Math.min(Math.max(quality, 0), 100);
+		for (int i = 0; i < encoders.length; i++) {
+			encoders[i].setQuality(quality);
+		}
 	}
 
 	/**
-	 * Converts a mat to a compressed jpeg
+	 * Removes lens distortion from every view
 	 * 
-	 * @param mat
+	 * @param calibration The calibration or null to stream the frames as they are
+	 */
+	public void setCalibration(CameraCalibration calibration) {
+		for (int i = 0; i < encoders.length; i++) {
+			encoders[i].setCalibration(calibration);
+		}
+	}
+
+	/**
+	 * Returns true if any client wants a view
+	 * 
+	 * @param view
 	 * @return
 	 */
-	private static byte[] getJPEGBytes(Mat mat) {
-		MatOfByte matOfByte = new MatOfByte();
-		Imgcodecs.imencode(".jpg", mat, matOfByte);
+	public boolean hasClients(StreamView view) {
+		return encoders[view.ordinal()].hasVariants();
+	}
 
-		byte[] buffer = matOfByte.toArray();
-		matOfByte.release();
+	/**
+	 * Returns the number of connected clients
+	 * 
+	 * @return
+	 */
+	public int getClientCount() {
+		return clientCount;
+	}
 
-		return buffer;
+	/**
+	 * Returns the number of versions of each frame that are encoded for the
+	 * clients of every view
+	 * 
+	 * @return
+	 */
+	public int getVariantCount() {
+		return variantCount;
 	}
 
-	private CameraResolution resolution;
-	private ServerSocket serverSocket;
-	private Vector<ClientHandler> clients;
-	private DecimalFormat decimalFormat;
+	/**
+	 * Returns the number of jpegs that have been encoded for every view
+	 * 
+	 * @return
+	 */
+	public long getEncodedFrames() {
+		long frames = 0;
+		for (int i = 0; i < encoders.length; i++) {
+			frames += encoders[i].getEncodedFrames();
+		}
 
-	private boolean skip;
-	private int interval;
-	private long counter;
+		return frames;
+	}
 
-	@Override
-	public void run() {
-		while (true) {
-			try {
-				Socket socket = serverSocket.accept();
-				ClientHandler client = new ClientHandler(socket);
-				client.start();
+	/**
+	 * Returns the average size of the jpegs of every view
+	 * 
+	 * @return
+	 */
+	public double getBytesPerFrame() {
+		double bytes = 0;
+		long frames = 0;
+		for (int i = 0; i < encoders.length; i++) {
+			long encoded = encoders[i].getEncodedFrames();
+			bytes += encoders[i].getBytesPerFrame() * encoded;
+			frames += encoded;
+		}
 
-				clients.add(client);
-			} catch (IOException e) {
-				System.err.println("Warning: Socket error");
+		return (frames == 0) ? 0 : bytes / frames;
+	}
+
+	/**
+	 * Returns the number of frames of every view that were replaced before they
+	 * were encoded
+	 * 
+	 * @return
+	 */
+	public long getSupersededFrames() {
+		long frames = 0;
+		for (int i = 0; i < encoders.length; i++) {
+			frames += encoders[i].getSupersededFrames();
+		}
+
+		return frames;
+	}
+
+	/**
+	 * Returns the number of frames that were not sent to a client because it had
+	 * not finished the frame before
+	 * 
+	 * @return
+	 */
+	public long getSlowClientDrops() {
+		return slowClientDrops;
+	}
+
+	/**
+	 * Returns the number of bytes that have been sent to clients
+	 * 
+	 * @return
+	 */
+	public long getBytesSent() {
+		return bytesSent;
+	}
+
+	/**
+	 * Returns the bytes sent to clients per second, updated every second
+	 * 
+	 * @return
+	 */
+	public double getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	/**
+	 * Reads the path and query from the request line
+	 * 
+	 * @param request
+	 * @return
+	 */
+	private static String getRequestTarget(ByteBuffer request) {
+		StringBuilder line = new StringBuilder();
+		for (int i = 0; i < request.position() && request.get(i) != '\n'; i++) {
+			line.append((char) request.get(i));
+		}
+
+		// GET /path?query HTTP/1.1
+		String[] parts = line.toString().trim().split(" ");
+		return (parts.length > 1) ? parts[1] : "/";
+	}
+
+	/**
+	 * Returns true if the request line has been read
+	 * 
+	 * @param request
+	 * @return
+	 */
+	private static boolean hasRequestLine(ByteBuffer request) {
+		if (!request.hasRemaining()) {
+			return true;
+		}
+
+		for (int i = 0; i < request.position(); i++) {
+			if (request.get(i) == '\n') {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Reads the stream options from the query (fps, quality and width). Options
+	 * that are missing or invalid are left as they are.
+	 * 
+	 * @param client
+	 * @param query
+	 */
+	private static void readOptions(ClientHandler client, String query) {
+		String[] options = query.split("&");
+		for (int i = 0; i < options.length; i++) {
+			int separator = options[i].indexOf('=');
+			if (separator < 0) {
 				continue;
 			}
+
+			String name = options[i].substring(0, separator);
+			String value = options[i].substring(separator + 1);
+			try {
+				if (name.equals("fps")) {
+					client.fps = Math.max(Double.parseDouble(value), 0);
+				} else if (name.equals("quality")) {
+					client.quality = Math.min(Math.max(Integer.parseInt(value), 1), 100);
+				} else if (name.equals("width")) {
+					client.width = Math.max(Integer.parseInt(value), 1);
+				}
+			} catch (NumberFormatException e) {
+
+			}
+		}
+	}
+
+	/**
+	 * Returns the view for a stream path. Unknown paths get the annotated stream
+	 * like they always have.
+	 * 
+	 * @param path
+	 * @return
+	 */
+	private static StreamView getView(String path) {
+		if (path.equals("/stream/raw")) {
+			return StreamView.RAW;
+		} else if (path.equals("/stream/threshold")) {
+			return StreamView.THRESHOLD;
+		}
+
+		return StreamView.ANNOTATED;
+	}
+
+	/**
+	 * Starts the response once the request path is known. The metrics and
+	 * snapshots are sent and the connection is closed after them, and every other
+	 * path gets a stream.
+	 * 
+	 * @param client
+	 * @param target
+	 * @throws IOException
+	 */
+	private void startResponse(ClientHandler client, String target) throws IOException {
+		client.requestDone = true;
+
+		int separator = target.indexOf('?');
+		String path = (separator < 0) ? target : target.substring(0, separator);
+		if (separator >= 0) {
+			readOptions(client, target.substring(separator + 1));
+		}
+
+		if (path.startsWith("/metrics")) {
+			StringBuilder builder = new StringBuilder();
+			builder.append("HTTP/1.0 200 OK\r\nServer: ").append(SERVER_NAME)
+					.append("\r\nContent-Type: text/plain; charset=utf-8\r\n\r\n");
+			metrics.write(builder);
+
+			client.closeWhenSent = true;
+			client.queue(ByteBuffer.wrap(builder.toString().getBytes("UTF-8")), EMPTY);
+		} else if (path.equals("/snapshot.jpg")) {
+			client.view = StreamView.ANNOTATED;
+
+			// Wait for the next frame if there is no recent one
+			int view = client.view.ordinal();
+			if (snapshots[view] != null && System.currentTimeMillis() - snapshotTimes[view] <= SNAPSHOT_MAX_AGE) {
+				sendSnapshot(client, snapshots[view]);
+			} else {
+				client.snapshot = true;
+				client.lastProgress = System.currentTimeMillis();
+				assignVariant(client);
+			}
+			return;
+		} else {
+			client.view = getView(path);
+			client.streaming = true;
+			streamingClients++;
+			StreamBudget.addClient();
+			assignVariant(client);
+			client.queue(ByteBuffer.wrap(STREAM_RESPONSE), EMPTY);
 		}
+
+		write(client);
 	}
 
 	/**
-	 * Sends a frame to the clients
+	 * Sends a jpeg as a single image and closes the connection after it
 	 * 
+	 * @param client
 	 * @param frame
 	 */
-	public synchronized void sendFrame(Mat frame, double fps) {
-		Mat workingFrame = new Mat();
-		frame.copyTo(workingFrame);
-		
-		if (skip && counter++ % interval != 0) {
-			workingFrame.release();
+	private void sendSnapshot(ClientHandler client, SharedFrame frame) {
+		releaseVariant(client);
+
+		byte[] header = ("HTTP/1.0 200 OK\r\nServer: " + SERVER_NAME + "\r\nContent-Type: image/jpeg\r\nContent-Length: "
+				+ frame.dataLength + "\r\n\r\n").getBytes();
+
+		frame.retain();
+		client.frame = frame;
+		client.closeWhenSent = true;
+		client.queue(ByteBuffer.wrap(header), ByteBuffer.wrap(frame.data, 0, frame.dataLength));
+		write(client);
+	}
+
+	/**
+	 * Accepts a new client
+	 * 
+	 * @throws IOException
+	 */
+	private void accept() throws IOException {
+		SocketChannel channel = serverChannel.accept();
+		if (channel == null) {
 			return;
 		}
 
-		CompletableFuture.runAsync(() -> {
-			VisionUtil.resize(workingFrame, resolution.width, resolution.height);
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		channel.socket().setSendBufferSize(SEND_BUFFER_SIZE);
 
-			double outputFPS = Double.parseDouble(decimalFormat.format(fps));
-			Imgproc.putText(workingFrame, outputFPS + " FPS", new Point(5, 10), 0, 0.25, GREEN);
+		ClientHandler client = new ClientHandler(channel);
+		client.key = channel.register(selector, SelectionKey.OP_READ, client);
+		clients.add(client);
+		clientCount = clients.size();
+	}
 
-			// See this link for crosshair
-			// https://answers.opencv.org/question/22960/how-to-draw-crosshairsmarked-axes/
+	/**
+	 * Reads the request from a client or discards anything it sends after it
+	 * 
+	 * @param client
+	 * @throws IOException
+	 */
+	private void read(ClientHandler client) throws IOException {
+		if (client.requestDone) {
+			discardBuffer.clear();
+			if (client.channel.read(discardBuffer) < 0) {
+				close(client);
+			}
+			return;
+		}
 
-			Imgproc.line(workingFrame, new Point(workingFrame.width() / 2.0, workingFrame.height() / 2.0 - 8),
-					new Point(workingFrame.width() / 2.0, workingFrame.height() / 2.0 + 8), GREEN, 2);
+		if (client.channel.read(client.request) < 0) {
+			close(client);
+			return;
+		}
 
-			Imgproc.line(workingFrame, new Point(workingFrame.width() / 2.0 - 8, workingFrame.height() / 2.0),
-					new Point(workingFrame.width() / 2.0 + 8, workingFrame.height() / 2.0), GREEN, 2);
+		if (hasRequestLine(client.request)) {
+			startResponse(client, getRequestTarget(client.request));
+		}
+	}
 
-			compress(workingFrame);
+	/**
+	 * Writes as much of the client's backlog as the socket will take without
+	 * blocking and waits for the socket to be writable if there is more
+	 * 
+	 * @param client
+	 */
+	private void write(ClientHandler client) {
+		try {
+			long written = client.channel.write(client.backlog);
+			if (written > 0) {
+				bytesSent += written;
+				client.windowBytes += written;
+				client.lastProgress = System.currentTimeMillis();
+			}
 
-			byte[] buffer = getJPEGBytes(workingFrame);
-			workingFrame.release();
+			if (client.hasBacklog()) {
+				client.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			} else if (client.closeWhenSent) {
+				close(client);
+			} else {
+				client.releaseFrame();
+				client.key.interestOps(SelectionKey.OP_READ);
+			}
+		} catch (IOException e) {
+			close(client);
+		}
+	}
 
-			for (int i = 0; i < clients.size(); i++) {
+	/**
+	 * Closes a client's connection
+	 * 
+	 * @param client
+	 */
+	private void close(ClientHandler client) {
+		if (!clients.remove(client)) {
+			return;
+		}
+
+		clientCount = clients.size();
+		client.releaseFrame();
+		releaseVariant(client);
+		if (client.streaming) {
+			streamingClients--;
+			StreamBudget.removeClient();
+		}
+
+		client.key.cancel();
+		try {
+			client.channel.close();
+		} catch (IOException e) {
+
+		}
+	}
+
+	/**
+	 * Finds the variant for a client's view and options at an operating point
+	 * 
+	 * @param client
+	 * @param level
+	 * @param create Adds the variant if no client is using it yet
+	 * @return The variant or null if it does not exist and create is false
+	 */
+	private StreamVariant findVariant(ClientHandler client, int level, boolean create) {
+		int baseQuality = (client.quality > 0) ? client.quality : quality;
+		int variantQuality = Math.max(1, (int) Math.round(baseQuality * StreamEncoder.LEVEL_QUALITY[level]));
+
+		// Frames are never made bigger than the stream resolution
+		int baseWidth = (client.width > 0) ? Math.min(client.width, resolution.width) : resolution.width;
+		int width = Math.max(1, (int) Math.round(baseWidth * StreamEncoder.LEVEL_SCALE[level]));
+		int height = Math.max(1, (int) Math.round((double) width * resolution.height / resolution.width));
+		int interval = StreamEncoder.LEVEL_INTERVAL[level];
+
+		// Clients can ask for a lower frame rate than the stream's
+		double fps = streamFPS;
+		if (client.fps > 0) {
+			fps = (fps > 0) ? Math.min(client.fps, fps) : client.fps;
+		}
+
+		ArrayList<StreamVariant> viewVariants = variants[client.view.ordinal()];
+		for (int i = 0; i < viewVariants.size(); i++) {
+			StreamVariant variant = viewVariants.get(i);
+			if (variant.matches(variantQuality, width, height, fps, interval)) {
+				return variant;
+			}
+		}
+
+		if (!create) {
+			return null;
+		}
+
+		StreamVariant variant = new StreamVariant(variantQuality, width, height, fps, interval);
+		viewVariants.add(variant);
+		publishVariants(client.view);
+		return variant;
+	}
+
+	/**
+	 * Moves a client to the variant for its operating point
+	 * 
+	 * @param client
+	 */
+	private void assignVariant(ClientHandler client) {
+		StreamVariant variant = findVariant(client, client.level, true);
+		if (variant == client.variant) {
+			return;
+		}
+
+		variant.clients++;
+		releaseVariant(client);
+		client.variant = variant;
+	}
+
+	/**
+	 * Removes a client from its variant and stops encoding the variant if it was
+	 * the last one using it
+	 * 
+	 * @param client
+	 */
+	private void releaseVariant(ClientHandler client) {
+		StreamVariant variant = client.variant;
+		if (variant == null) {
+			return;
+		}
+		client.variant = null;
+
+		if (--variant.clients == 0) {
+			// The encoder may still be encoding the variant, so it releases it and
+			// drops any jpeg it finishes for it
+			variants[client.view.ordinal()].remove(variant);
+			publishVariants(client.view);
+			variant.removed = true;
+			encoders[client.view.ordinal()].retire(variant);
+
+			SharedFrame frame = variant.pending.getAndSet(null);
+			if (frame != null) {
+				frame.release();
+			}
+		}
+	}
+
+	/**
+	 * Gives the encoder of a view the variants that clients are using
+	 * 
+	 * @param view
+	 */
+	private void publishVariants(StreamView view) {
+		ArrayList<StreamVariant> viewVariants = variants[view.ordinal()];
+		encoders[view.ordinal()].setVariants(viewVariants.toArray(new StreamVariant[viewVariants.size()]));
+
+		int count = 0;
+		for (int i = 0; i < variants.length; i++) {
+			count += variants[i].size();
+		}
+		variantCount = count;
+	}
+
+	/**
+	 * Queues a frame for every client of a variant that has sent the frame
+	 * before. Clients that are still sending it skip this frame. Each client holds
+	 * a reference to the frame until it has been written.
+	 * 
+	 * @param view
+	 * @param variant
+	 * @param frame
+	 */
+	private void sendPendingFrame(StreamView view, StreamVariant variant, SharedFrame frame) {
+		long time = System.currentTimeMillis();
+		variant.lastFrameBytes = frame.dataLength;
+
+		// Keep the frame for snapshots
+		int index = view.ordinal();
+		if (snapshots[index] != null) {
+			snapshots[index].release();
+		}
+		frame.retain();
+		snapshots[index] = frame;
+		snapshotTimes[index] = time;
+
+		for (int i = clients.size() - 1; i >= 0; i--) {
+			ClientHandler client = clients.get(i);
+			if (client.variant != variant) {
+				continue;
+			}
+
+			if (client.snapshot) {
+				sendSnapshot(client, frame);
+				continue;
+			}
+
+			if (client.hasBacklog()) {
+				client.windowDrops++;
+				slowClientDrops++;
+				continue;
+			}
+
+			client.windowFrames++;
+			frame.retain();
+			client.frame = frame;
+			client.queue(frame);
+			write(client);
+		}
+
+		frame.release();
+	}
+
+	/**
+	 * Starts the stream for clients that have not sent a request line yet and
+	 * closes clients that have not accepted any bytes for too long
+	 */
+	private void checkTimeouts() {
+		long time = System.currentTimeMillis();
+
+		for (int i = clients.size() - 1; i >= 0; i--) {
+			ClientHandler client = clients.get(i);
+
+			if (!client.requestDone) {
+				if (time - client.lastProgress >= REQUEST_TIMEOUT) {
+					// Clients that do not send a request get the stream
+					try {
+						startResponse(client, "/");
+					} catch (IOException e) {
+						close(client);
+					}
+				}
+			} else if (client.hasBacklog() && time - client.lastProgress >= CLIENT_TIMEOUT) {
+				close(client);
+			} else if (client.snapshot && client.variant != null && time - client.lastProgress >= SNAPSHOT_MAX_AGE) {
+				// No frame was made for the snapshot (this also stops the view from being
+				// encoded for it)
+				releaseVariant(client);
+				client.closeWhenSent = true;
+				client.queue(ByteBuffer.wrap(SNAPSHOT_UNAVAILABLE_RESPONSE), EMPTY);
+				write(client);
+			}
+		}
+
+		if (time - rateTime >= 1000) {
+			double seconds = (time - rateTime) / 1000.0;
+			long bytes = bytesSent;
+			bytesPerSecond = (bytes - rateBytes) / seconds;
+			rateBytes = bytes;
+			rateTime = time;
+
+			adaptClients(seconds);
+		}
+	}
+
+	/**
+	 * Returns the bitrate a client would use one operating point up, from the
+	 * sizes of the last jpegs at both points
+	 * 
+	 * @param client
+	 * @param bitrate The client's bitrate now
+	 * @return
+	 */
+	private double getUpgradeBitrate(ClientHandler client, double bitrate) {
+		int level = client.level;
+
+		// Assume double the size before a jpeg has been made at the better point
+		double ratio = 2;
+		StreamVariant better = findVariant(client, level - 1, false);
+		if (better != null && better.lastFrameBytes > 0 && client.variant.lastFrameBytes > 0) {
+			ratio = (double) better.lastFrameBytes / client.variant.lastFrameBytes;
+		}
+
+		return bitrate * ratio * StreamEncoder.LEVEL_INTERVAL[level] / StreamEncoder.LEVEL_INTERVAL[level - 1];
+	}
+
+	/**
+	 * Moves each streaming client to the operating point that fits its link and
+	 * its part of the budget, using what it was sent in the last second
+	 * 
+	 * @param seconds The length of the last measurement
+	 */
+	private void adaptClients(double seconds) {
+		double share = StreamBudget.getClientShare();
+
+		for (int i = 0; i < clients.size(); i++) {
+			ClientHandler client = clients.get(i);
+			if (!client.streaming) {
+				continue;
+			}
+
+			double bitrate = client.windowBytes * 8 / seconds;
+			int frames = client.windowFrames + client.windowDrops;
+			boolean behind = client.windowDrops > frames * MAX_DROP_FRACTION;
+
+			client.upgradeSeconds++;
+			if (behind || bitrate > share) {
+				client.stableSeconds = 0;
+				if (client.level < StreamEncoder.LEVELS - 1) {
+					client.level++;
+					if (client.upgradeSeconds <= MIN_UPGRADE_WAIT) {
+						client.upgradeWait = Math.min(client.upgradeWait * 2, MAX_UPGRADE_WAIT);
+					}
+					assignVariant(client);
+				}
+			} else if (client.level > 0 && getUpgradeBitrate(client, bitrate) <= share * UPGRADE_HEADROOM) {
+				if (++client.stableSeconds >= client.upgradeWait) {
+					client.level--;
+					client.stableSeconds = 0;
+					client.upgradeSeconds = 0;
+					assignVariant(client);
+				}
+			} else {
+				client.stableSeconds = 0;
+			}
+
+			if (client.upgradeSeconds == MIN_UPGRADE_WAIT + 1) {
+				client.upgradeWait = Math.max(client.upgradeWait / 2, MIN_UPGRADE_WAIT);
+			}
+
+			client.windowBytes = 0;
+			client.windowFrames = 0;
+			client.windowDrops = 0;
+		}
+	}
+
+	@Override
+	public void run() {
+		for (int i = 0; i < encoders.length; i++) {
+			encoders[i].setName(getName() + "-Encoder-" + VIEWS[i].name().toLowerCase());
+			encoders[i].setDaemon(true);
+			encoders[i].setPriority(Thread.MIN_PRIORITY);
+			encoders[i].start();
+		}
+
+		rateTime = System.currentTimeMillis();
+
+		while (true) {
+			try {
+				selector.select(SELECT_TIMEOUT);
+			} catch (IOException e) {
+				System.err.println("Warning: Socket error");
+				continue;
+			}
+
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+
+				if (!key.isValid()) {
+					continue;
+				}
+
+				if (key.isAcceptable()) {
+					try {
+						accept();
+					} catch (IOException e) {
+						System.err.println("Warning: Socket error");
+					}
+					continue;
+				}
+
+				ClientHandler client = (ClientHandler) key.attachment();
 				try {
-					clients.get(i).sendFrame(buffer);
+					if (key.isReadable()) {
+						read(client);
+					}
+					if (key.isValid() && key.isWritable()) {
+						write(client);
+					}
 				} catch (IOException e) {
-					clients.remove(i);
-					i--;
+					close(client);
+				}
+			}
+
+			for (int i = 0; i < variants.length; i++) {
+				// Sending can remove a variant when its last client closes
+				for (int j = variants[i].size() - 1; j >= 0; j--) {
+					if (j >= variants[i].size()) {
+						continue;
+					}
+
+					StreamVariant variant = variants[i].get(j);
+					SharedFrame frame = variant.pending.getAndSet(null);
+					if (frame != null) {
+						sendPendingFrame(VIEWS[i], variant, frame);
+					}
 				}
 			}
-		});
+
+			checkTimeouts();
+		}
 	}
 
-	public MJPEGServer(CameraResolution resolution, int port) throws IOException {
-		this.resolution = resolution;
-		serverSocket = new ServerSocket(port);
-		clients = new Vector<ClientHandler>();
-		decimalFormat = new DecimalFormat("###.#");
+	/**
+	 * Closes the server socket of a server that was never started, so that its
+	 * port can be used again
+	 */
+	public void close() {
+		try {
+			selector.close();
+			serverChannel.close();
+		} catch (IOException e) {
 
-		skip = false;
+		}
+	}
+
+	/**
+	 * Hands a frame of a view to its encoder without waiting. The encoder only
+	 * copies it when a variant of the view is due for a frame, and nothing is
+	 * done when no client wants the view. This is only called from the vision
+	 * loop.
+	 * 
+	 * @param view
+	 * @param frame The frame or null if the view has none
+	 * @param fps
+	 */
+	public void sendFrame(StreamView view, Mat frame, double fps) {
+		StreamEncoder encoder = encoders[view.ordinal()];
+		if (!encoder.hasVariants() || frame == null || frame.empty()) {
+			return;
+		}
+
+		encoder.submit(frame, fps);
+	}
+
+	/**
+	 * Copies an encoded frame into a shared frame from the pool and hands it to
+	 * the server thread, which sends it to every client of the variant. A frame
+	 * that the server thread has not picked up yet is replaced.
+	 * 
+	 * @param view
+	 * @param variant
+	 * @param jpeg
+	 * @param length
+	 */
+	void sendToClients(StreamView view, StreamVariant variant, MatOfByte jpeg, int length) {
+		SharedFrame frame = SharedFrame.acquire(framePool);
+		frame.setLength(length);
+		jpeg.get(0, 0, frame.data);
+
+		SharedFrame replaced = variant.pending.getAndSet(frame);
+		if (replaced != null) {
+			replaced.release();
+		}
+
+		// The server thread does not look at variants that no client is using
+		if (variant.removed) {
+			replaced = variant.pending.getAndSet(null);
+			if (replaced != null) {
+				replaced.release();
+			}
+			return;
+		}
+		selector.wakeup();
 	}
 
-	public MJPEGServer(CameraResolution resolution, int port, int cameraFPS, int streamFPS) throws IOException {
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public MJPEGServer(CameraResolution resolution, int port, double streamFPS) throws IOException {
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(new InetSocketAddress(port));
+		serverChannel.configureBlocking(false);
+		selector = Selector.open();
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+		clients = new ArrayList<ClientHandler>();
+		discardBuffer = ByteBuffer.allocate(MAX_REQUEST_LINE);
+		framePool = new ArrayBlockingQueue<SharedFrame>(FRAME_POOL_SIZE);
+
 		this.resolution = resolution;
-		serverSocket = new ServerSocket(port);
-		clients = new Vector<ClientHandler>();
-		decimalFormat = new DecimalFormat("###.#");
+		this.streamFPS = Math.max(streamFPS, 0);
+		quality = StreamEncoder.DEFAULT_QUALITY;
 
-		skip = true;
-		interval = cameraFPS / streamFPS;
-		counter = 0l;
+		encoders = new StreamEncoder[VIEWS.length];
+		variants = new ArrayList[VIEWS.length];
+		for (int i = 0; i < VIEWS.length; i++) {
+			encoders[i] = new StreamEncoder(this, resolution, VIEWS[i]);
+			variants[i] = new ArrayList<StreamVariant>();
+		}
+		snapshots = new SharedFrame[VIEWS.length];
+		snapshotTimes = new long[VIEWS.length];
+		metrics = new MetricsRegistry("stream");
+	}
+
+	public MJPEGServer(CameraResolution resolution, int port) throws IOException {
+		this(resolution, port, 0);
 	}
 
-	private class ClientHandler {
-		private OutputStream outputStream;
+	private static class ClientHandler {
+		private SocketChannel channel;
+		private SelectionKey key;
+		private ByteBuffer request;
+
+		private boolean requestDone;
+		private boolean streaming;
+		private boolean snapshot;
+		private boolean closeWhenSent;
+
+		// The part of the response or frame that has not been written yet (a header
+		// and a body for gathering writes)
+		private ByteBuffer[] backlog;
+		private SharedFrame frame;
+		private long lastProgress;
+
+		// Buffers over the pooled frames so that sending a frame does not allocate
+		private SharedFrame[] frameSlots;
+		private ByteBuffer[] headerSlots;
+		private ByteBuffer[] dataSlots;
+
+		// What the client asked for (0 for the defaults)
+		private StreamView view;
+		private int quality;
+		private int width;
+		private double fps;
+
+		// The operating point and what was sent in the last second
+		private StreamVariant variant;
+		private int level;
+		private long windowBytes;
+		private int windowFrames;
+		private int windowDrops;
+		private int stableSeconds;
+		private int upgradeSeconds = MAX_UPGRADE_WAIT;
+		private int upgradeWait = MIN_UPGRADE_WAIT;
+
+		/**
+		 * Returns true if the client has not been sent everything that was queued
+		 * 
+		 * @return
+		 */
+		public boolean hasBacklog() {
+			return backlog[0].hasRemaining() || backlog[1].hasRemaining();
+		}
+
+		/**
+		 * Releases the frame that was being sent
+		 */
+		public void releaseFrame() {
+			if (frame != null) {
+				frame.release();
+				frame = null;
+			}
+		}
 
 		/**
-		 * Starts the initial response to the client
+		 * Queues a header and a body to be sent together
 		 * 
-		 * @throws IOException
+		 * @param header
+		 * @param body
 		 */
-		public void start() throws IOException {
-			outputStream.write(("HTTP/1.0 200 OK\r\nServer: " + SERVER_NAME
-					+ "\r\nContent-Type: multipart/x-mixed-replace; boundary=--BoundaryString\r\n\r\n").getBytes());
-			outputStream.flush();
+		public void queue(ByteBuffer header, ByteBuffer body) {
+			backlog[0] = header;
+			backlog[1] = body;
 		}
 
 		/**
-		 * Sends a frame after the response has been started
+		 * Queues a frame with buffers that are kept for it instead of wrapping its
+		 * arrays each time
 		 * 
 		 * @param frame
-		 * @throws IOException
 		 */
-		public void sendFrame(byte[] frame) throws IOException {
-			outputStream.write(
-					("--BoundaryString\r\nContent-Type: image/jpeg\r\nContent-Length: " + frame.length + "\r\n\r\n")
-							.getBytes());
-			outputStream.write(frame);
+		public void queue(SharedFrame frame) {
+			int slot = frame.id % FRAME_POOL_SIZE;
+			if (frameSlots[slot] != frame || dataSlots[slot].array() != frame.data) {
+				// A frame that is new to this client or whose array grew
+				frameSlots[slot] = frame;
+				headerSlots[slot] = ByteBuffer.wrap(frame.header);
+				dataSlots[slot] = ByteBuffer.wrap(frame.data);
+			}
+
+			ByteBuffer header = headerSlots[slot];
+			header.clear();
+			header.limit(frame.headerLength);
+
+			ByteBuffer data = dataSlots[slot];
+			data.clear();
+			data.limit(frame.dataLength);
 
-			outputStream.flush();
+			queue(header, data);
 		}
 
-		public ClientHandler(Socket socket) throws IOException {
-			this.outputStream = socket.getOutputStream();
+		public ClientHandler(SocketChannel channel) {
+			this.channel = channel;
+			request = ByteBuffer.allocate(MAX_REQUEST_LINE);
+			backlog = new ByteBuffer[] { EMPTY, EMPTY };
+			frameSlots = new SharedFrame[FRAME_POOL_SIZE];
+			headerSlots = new ByteBuffer[FRAME_POOL_SIZE];
+			dataSlots = new ByteBuffer[FRAME_POOL_SIZE];
+			lastProgress = System.currentTimeMillis();
 		}
 	}
 }
@@ -0,0 +1,125 @@
+/**
+ * Copyright (c) 2019 Team 3555
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.aluminati3555.aluminativision.net;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class holds an encoded stream frame and its multipart header. Every
+ * client is sent the same frame, and it goes back to its pool when the last one
+ * is done with it.
+ * 
+ * @author Caleb Heydon
+ */
+class SharedFrame {
+	private static final byte[] HEADER_START = "--BoundaryString\r\nContent-Type: image/jpeg\r\nContent-Length: "
+			.getBytes();
+	private static final byte[] HEADER_END = "\r\n\r\n".getBytes();
+
+	private static final AtomicInteger nextID = new AtomicInteger();
+
+	private ArrayBlockingQueue<SharedFrame> pool;
+	private AtomicInteger references;
+
+	// Clients use this to find the buffers they keep for the frame
+	public final int id;
+
+	public byte[] header;
+	public int headerLength;
+	public byte[] data;
+	public int dataLength;
+
+	/**
+	 * Makes sure the frame can hold a jpeg and writes its header. The start of
+	 * the header never changes, so only the length is written.
+	 * 
+	 * @param length
+	 */
+	public void setLength(int length) {
+		if (data.length < length) {
+			data = new byte[length * 2];
+		}
+		dataLength = length;
+
+		int position = HEADER_START.length;
+
+		// Write the digits of the length without making a string
+		int digits = 1;
+		for (int value = length; value >= 10; value /= 10) {
+			digits++;
+		}
+		for (int i = digits - 1; i >= 0; i--) {
+			header[position + i] = (byte) ('0' + length % 10);
+			length /= 10;
+		}
+		position += digits;
+
+		System.arraycopy(HEADER_END, 0, header, position, HEADER_END.length);
+		headerLength = position + HEADER_END.length;
+	}
+
+	/**
+	 * Adds a reference to the frame
+	 */
+	public void retain() {
+		references.incrementAndGet();
+	}
+
+	/**
+	 * Removes a reference to the frame and returns it to its pool after the last
+	 * one
+	 */
+	public void release() {
+		if (references.decrementAndGet() == 0) {
+			pool.offer(this);
+		}
+	}
+
+	/**
+	 * Takes a frame from a pool or makes a new one if the pool is empty. The
+	 * caller holds the only reference.
+	 * 
+	 * @param pool
+	 * @return
+	 */
+	public static SharedFrame acquire(ArrayBlockingQueue<SharedFrame> pool) {
+		SharedFrame frame = pool.poll();
+		if (frame == null) {
+			frame = new SharedFrame(pool);
+		}
+
+		frame.references.set(1);
+		return frame;
+	}
+
+	private SharedFrame(ArrayBlockingQueue<SharedFrame> pool) {
+		this.pool = pool;
+		references = new AtomicInteger();
+		id = nextID.getAndIncrement() & Integer.MAX_VALUE;
+
+		header = new byte[HEADER_START.length + 10 + HEADER_END.length];
+		System.arraycopy(HEADER_START, 0, header, 0, HEADER_START.length);
+		data = new byte[64 * 1024];
+	}
+}
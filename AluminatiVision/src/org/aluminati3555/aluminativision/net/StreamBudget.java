@@ -0,0 +1,86 @@
+/**
+ * Copyright (c) 2019 Team 3555
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.aluminati3555.aluminativision.net;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class holds the bandwidth that every stream client of every camera
+ * shares
+ * 
+ * @author Caleb Heydon
+ */
+public class StreamBudget {
+	// In bits per second (0 for no limit)
+	private static volatile double maxBitrate = 0;
+	private static AtomicInteger clients = new AtomicInteger();
+
+	/**
+	 * Sets the most bits per second that all of the streams can use together
+	 * 
+	 * @param maxBitrate The bitrate or 0 for no limit
+	 */
+	public static void setMaxBitrate(double maxBitrate) {
+		StreamBudget.maxBitrate = maxBitrate;
+	}
+
+	/**
+	 * Returns the most bits per second that all of the streams can use together
+	 * 
+	 * @return
+	 */
+	public static double getMaxBitrate() {
+		return maxBitrate;
+	}
+
+	/**
+	 * Returns the number of clients streaming from any camera
+	 * 
+	 * @return
+	 */
+	public static int getClientCount() {
+		return clients.get();
+	}
+
+	/**
+	 * Returns each client's equal part of the budget in bits per second
+	 * 
+	 * @return
+	 */
+	public static double getClientShare() {
+		double bitrate = maxBitrate;
+		if (bitrate <= 0) {
+			return Double.POSITIVE_INFINITY;
+		}
+
+		return bitrate / Math.max(1, clients.get());
+	}
+
+	static void addClient() {
+		clients.incrementAndGet();
+	}
+
+	static void removeClient() {
+		clients.decrementAndGet();
+	}
+}
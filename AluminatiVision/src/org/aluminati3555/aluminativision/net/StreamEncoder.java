@@ -0,0 +1,472 @@
+/**
+ * Copyright (c) 2019 Team 3555
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.aluminati3555.aluminativision.net;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.aluminati3555.aluminativision.CameraResolution;
+import org.aluminati3555.aluminativision.calibration.CameraCalibration;
+import org.aluminati3555.aluminativision.metrics.LatencyHistogram;
+import org.aluminati3555.aluminativision.metrics.MetricsRegistry;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * This thread annotates and encodes the frames of one stream view. Frames are
+ * handed over from the vision loop in three reusable buffers like the frame
+ * grabber's, so the loop never waits and at most one frame is pending. A frame
+ * that the encoder has not taken yet is replaced by the next one, so it always
+ * encodes the newest frame. Each frame is encoded once for each variant that a
+ * client is using, and the same jpeg is sent to every client of that variant.
+ * 
+ * @author Caleb Heydon
+ */
+public class StreamEncoder extends Thread {
+	public static final int DEFAULT_QUALITY = 50;
+
+	// The published buffer is stored with a flag that is set until it is taken
+	private static final int FRESH = 4;
+	private static final int INDEX_MASK = 3;
+
+	// Operating points for clients from the best to the worst. Each has a jpeg
+	// quality (a fraction of the client's quality), a size (a fraction of the
+	// client's size) and what the client's frame rate is divided by.
+	static final double[] LEVEL_QUALITY = { 1, 0.6, 0.6, 0.4, 0.4 };
+	static final double[] LEVEL_SCALE = { 1, 1, 0.5, 0.5, 0.5 };
+	static final int[] LEVEL_INTERVAL = { 1, 1, 1, 2, 4 };
+	static final int LEVELS = LEVEL_QUALITY.length;
+
+	private static final long WAIT_TIMEOUT = 100000000;
+
+	private static final Scalar GREEN = new Scalar(0, 255, 0);
+
+	// FPS labels are cached in tenths of a frame per second
+	private static final int MAX_FPS_LABEL = 10000;
+
+	private MJPEGServer server;
+	private StreamView view;
+	private Size size;
+
+	// The vision loop writes the back buffer and publishes it in latest, and the
+	// encoder swaps its front buffer for the newest published one
+	private StreamFrame[] buffers;
+	private AtomicInteger latest;
+	private int back;
+	private int front;
+
+	private String[] fpsLabels;
+	private Point textPosition;
+	private Point lineStart;
+	private Point lineEnd;
+
+	// The variants that clients are using and the one used by encode
+	private volatile StreamVariant[] variants;
+	private volatile StreamVariant defaultVariant;
+
+	// The variants that are due for the frame being encoded and the variants that
+	// clients stopped using, which are released between frames
+	private StreamVariant[] due;
+	private ConcurrentLinkedQueue<StreamVariant> retired;
+
+	// The last encoded frame stays in native memory until it is copied into a
+	// shared frame for the clients
+	private MatOfByte jpeg;
+	private int jpegLength;
+
+	// Maps for removing lens distortion at the stream resolution (null to stream
+	// the frames as they are). Replaced maps are released between frames.
+	private volatile UndistortMaps undistortMaps;
+	private ConcurrentLinkedQueue<UndistortMaps> retiredMaps;
+
+	private LatencyHistogram encodeTime;
+
+	private volatile long encodedFrames;
+	private volatile long encodedBytes;
+	private volatile long supersededFrames;
+
+	/**
+	 * Sets where the encode time is recorded
+	 * 
+	 * @param metrics
+	 */
+	public void setMetrics(MetricsRegistry metrics) {
+		String stage = MetricsRegistry.STREAM_ENCODE;
+		if (view != StreamView.ANNOTATED) {
+			stage += "_" + view.name().toLowerCase();
+		}
+
+		encodeTime = metrics.getHistogram(stage);
+	}
+
+	/**
+	 * Returns the view that is encoded
+	 * 
+	 * @return
+	 */
+	public StreamView getView() {
+		return view;
+	}
+
+	/**
+	 * Sets the variants that clients are using
+	 * 
+	 * @param variants
+	 */
+	void setVariants(StreamVariant[] variants) {
+		this.variants = variants;
+	}
+
+	/**
+	 * Releases a variant that was removed from the variants once the encoder has
+	 * finished the frame it is encoding
+	 * 
+	 * @param variant
+	 */
+	void retire(StreamVariant variant) {
+		retired.add(variant);
+	}
+
+	/**
+	 * Returns true if any client is using the stream
+	 * 
+	 * @return
+	 */
+	public boolean hasVariants() {
+		return variants.length > 0;
+	}
+
+	/**
+	 * Removes lens distortion from the stream. The maps are computed once here, so
+	 * each streamed frame only needs a remap. Frames that are not streamed are not
+	 * remapped. Both maps are published together, and the old ones are released
+	 * once the encoder has finished the frame it is encoding.
+	 * 
+	 * @param calibration The calibration or null to stream the frames as they are
+	 */
+	public void setCalibration(CameraCalibration calibration) {
+		UndistortMaps maps = null;
+		if (calibration != null) {
+			maps = new UndistortMaps();
+			calibration.createUndistortMaps((int) size.width, (int) size.height, maps.map1, maps.map2);
+		}
+
+		UndistortMaps oldMaps = undistortMaps;
+		undistortMaps = maps;
+		if (oldMaps != null) {
+			retiredMaps.add(oldMaps);
+		}
+	}
+
+	/**
+	 * Returns the number of jpegs that have been encoded (one for each operating
+	 * point in use per frame)
+	 * 
+	 * @return
+	 */
+	public long getEncodedFrames() {
+		return encodedFrames;
+	}
+
+	/**
+	 * Returns the average size of the encoded frames in bytes
+	 * 
+	 * @return
+	 */
+	public double getBytesPerFrame() {
+		long frames = encodedFrames;
+		return (frames == 0) ? 0 : (double) encodedBytes / frames;
+	}
+
+	/**
+	 * Sets the jpeg quality that encode uses
+	 * 
+	 * @param quality From 0 to 100
+	 */
+	public void setQuality(int quality) {
+		quality = Math.min(Math.max(quality, 0), 100);
+		defaultVariant = new StreamVariant(quality, (int) size.width, (int) size.height, 0, 1);
+	}
+
+	/**
+	 * Returns the number of frames that were replaced by a newer frame before the
+	 * encoder took them
+	 * 
+	 * @return
+	 */
+	public long getSupersededFrames() {
+		return supersededFrames;
+	}
+
+	/**
+	 * Returns the length of the last encoded frame
+	 * 
+	 * @return
+	 */
+	public int getJPEGLength() {
+		return jpegLength;
+	}
+
+	/**
+	 * Copies a frame into the back buffer at the stream resolution and publishes
+	 * it for the encoder. This never waits. A frame that the encoder has not taken
+	 * yet is replaced, so only the newest frame is pending. Nothing is copied when
+	 * no variant is due for a frame, and the encoder takes the tokens for the
+	 * frame it encodes.
+	 * 
+	 * @param frame
+	 * @param fps
+	 */
+	public void submit(Mat frame, double fps) {
+		StreamVariant[] variants = this.variants;
+		long time = System.nanoTime();
+		boolean due = false;
+		for (int i = 0; i < variants.length && !due; i++) {
+			due = variants[i].isDue(time, fps);
+		}
+		if (!due) {
+			return;
+		}
+
+		StreamFrame streamFrame = buffers[back];
+		if (frame.width() == (int) size.width && frame.height() == (int) size.height) {
+			frame.copyTo(streamFrame.frame);
+		} else {
+			Imgproc.resize(frame, streamFrame.frame, size, 0, 0, Imgproc.INTER_LINEAR);
+		}
+		streamFrame.fps = fps;
+		streamFrame.time = time;
+
+		// Publish the new frame and reuse whichever buffer it replaced
+		int previous = latest.getAndSet(back | FRESH);
+		if ((previous & FRESH) != 0) {
+			supersededFrames++;
+		}
+		back = previous & INDEX_MASK;
+
+		LockSupport.unpark(this);
+	}
+
+	/**
+	 * Returns the FPS label for the stream
+	 * 
+	 * @param fps
+	 * @return
+	 */
+	private String getFPSLabel(double fps) {
+		int index = (int) Math.min(Math.max(Math.round(fps * 10), 0), MAX_FPS_LABEL - 1);
+		if (fpsLabels[index] == null) {
+			fpsLabels[index] = (index / 10.0) + " FPS";
+		}
+
+		return fpsLabels[index];
+	}
+
+	/**
+	 * Draws the FPS and a crosshair on a frame and encodes it as a jpeg
+	 * 
+	 * @param frame
+	 * @param fps
+	 * @return The length of the jpeg
+	 */
+	public int encode(Mat frame, double fps) {
+		annotate(frame, fps);
+		return encodeVariant(frame, defaultVariant);
+	}
+
+	/**
+	 * Draws the FPS and a crosshair on a frame
+	 * 
+	 * @param frame
+	 * @param fps
+	 */
+	private void annotate(Mat frame, double fps) {
+		Imgproc.putText(frame, getFPSLabel(fps), textPosition, 0, 0.25, GREEN);
+
+		// See this link for crosshair
+		// https://answers.opencv.org/question/22960/how-to-draw-crosshairsmarked-axes/
+
+		double centerX = frame.width() / 2.0;
+		double centerY = frame.height() / 2.0;
+
+		lineStart.x = centerX;
+		lineStart.y = centerY - 8;
+		lineEnd.x = centerX;
+		lineEnd.y = centerY + 8;
+		Imgproc.line(frame, lineStart, lineEnd, GREEN, 2);
+
+		lineStart.x = centerX - 8;
+		lineStart.y = centerY;
+		lineEnd.x = centerX + 8;
+		lineEnd.y = centerY;
+		Imgproc.line(frame, lineStart, lineEnd, GREEN, 2);
+	}
+
+	/**
+	 * Encodes a frame as a jpeg for a variant
+	 * 
+	 * @param frame
+	 * @param variant
+	 * @return The length of the jpeg
+	 */
+	int encodeVariant(Mat frame, StreamVariant variant) {
+		if (frame.width() != variant.width || frame.height() != variant.height) {
+			Imgproc.resize(frame, variant.frame, variant.size, 0, 0, Imgproc.INTER_AREA);
+			frame = variant.frame;
+		}
+
+		Imgcodecs.imencode(".jpg", frame, jpeg, variant.params);
+		jpegLength = (int) jpeg.total();
+
+		encodedFrames++;
+		encodedBytes += jpegLength;
+		return jpegLength;
+	}
+
+	/**
+	 * The start of the encoder thread
+	 */
+	@Override
+	public void run() {
+		while (true) {
+			// The variant list without these was published before they were retired,
+			// so they are not encoded again
+			StreamVariant variant;
+			while ((variant = retired.poll()) != null) {
+				variant.release();
+			}
+
+			UndistortMaps oldMaps;
+			while ((oldMaps = retiredMaps.poll()) != null) {
+				oldMaps.release();
+			}
+
+			if ((latest.get() & FRESH) == 0) {
+				LockSupport.parkNanos(this, WAIT_TIMEOUT);
+				continue;
+			}
+
+			front = latest.getAndSet(front) & INDEX_MASK;
+			StreamFrame streamFrame = buffers[front];
+
+			// Only the variants that are due for this frame are encoded
+			StreamVariant[] variants = this.variants;
+			if (due.length < variants.length) {
+				due = new StreamVariant[variants.length];
+			}
+			int dueCount = 0;
+			for (int i = 0; i < variants.length; i++) {
+				if (!variants[i].removed && variants[i].take(streamFrame.time, streamFrame.fps)) {
+					due[dueCount++] = variants[i];
+				}
+			}
+			if (dueCount == 0) {
+				continue;
+			}
+
+			long time = System.nanoTime();
+			try {
+				Mat frame = streamFrame.frame;
+				UndistortMaps maps = undistortMaps;
+				if (maps != null) {
+					Imgproc.remap(frame, streamFrame.undistorted, maps.map1, maps.map2, Imgproc.INTER_LINEAR);
+					frame = streamFrame.undistorted;
+				}
+				if (view == StreamView.ANNOTATED) {
+					annotate(frame, streamFrame.fps);
+				}
+
+				for (int i = 0; i < dueCount; i++) {
+					encodeVariant(frame, due[i]);
+					server.sendToClients(view, due[i], jpeg, jpegLength);
+				}
+				encodeTime.recordSince(time);
+			} catch (RuntimeException e) {
+				// Only this frame is lost (CvException is a RuntimeException)
+				System.err.println("Error: Unable to encode frame for " + view);
+				e.printStackTrace();
+			}
+
+			for (int i = 0; i < dueCount; i++) {
+				due[i] = null;
+			}
+		}
+	}
+
+	public StreamEncoder(MJPEGServer server, CameraResolution resolution) {
+		this(server, resolution, StreamView.ANNOTATED);
+	}
+
+	public StreamEncoder(MJPEGServer server, CameraResolution resolution, StreamView view) {
+		this.server = server;
+		this.view = view;
+		size = new Size(resolution.width, resolution.height);
+		setMetrics(new MetricsRegistry("stream"));
+
+		buffers = new StreamFrame[3];
+		for (int i = 0; i < buffers.length; i++) {
+			buffers[i] = new StreamFrame();
+		}
+
+		// Buffer 0 is being written, 1 is published (but not fresh), and 2 is being
+		// encoded
+		back = 0;
+		latest = new AtomicInteger(1);
+		front = 2;
+
+		fpsLabels = new String[MAX_FPS_LABEL];
+		textPosition = new Point(5, 10);
+		lineStart = new Point();
+		lineEnd = new Point();
+
+		variants = new StreamVariant[0];
+		due = new StreamVariant[0];
+		retired = new ConcurrentLinkedQueue<StreamVariant>();
+		retiredMaps = new ConcurrentLinkedQueue<UndistortMaps>();
+		setQuality(DEFAULT_QUALITY);
+		jpeg = new MatOfByte();
+	}
+
+	private static class StreamFrame {
+		private Mat frame = new Mat();
+		private Mat undistorted = new Mat();
+		private double fps;
+		private long time;
+	}
+
+	private static class UndistortMaps {
+		private Mat map1 = new Mat();
+		private Mat map2 = new Mat();
+
+		private void release() {
+			map1.release();
+			map2.release();
+		}
+	}
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright (c) 2019 Team 3555
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.aluminati3555.aluminativision.net;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfInt;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+
+/**
+ * This class describes one version of a stream that is encoded for the clients
+ * that want it
+ * 
+ * @author Caleb Heydon
+ */
+class StreamVariant {
+	// Tokens saved up while frames arrive slower than the variant's rate, so that
+	// jitter between frames does not lower it
+	private static final double MAX_TOKENS = 2;
+
+	public int quality;
+	public int width;
+	public int height;
+
+	// Frames are encoded at fps / interval (fps is 0 to follow the camera)
+	public double fps;
+	public int interval;
+
+	// Token bucket that the encoder takes tokens from and the vision loop reads
+	private volatile double tokens;
+	private volatile long lastTime;
+
+	// Only used by the encoder
+	public MatOfInt params;
+	public Size size;
+	public Mat frame;
+
+	// The newest jpeg that has not been handed to the clients yet
+	public AtomicReference<SharedFrame> pending;
+
+	// Set by the server when the last client stops using the variant
+	public volatile boolean removed;
+
+	// Only used by the server thread
+	public int clients;
+	public int lastFrameBytes;
+
+	/**
+	 * Returns the tokens there would be at a time
+	 * 
+	 * @param time
+	 * @param sourceFPS
+	 * @return
+	 */
+	private double getTokens(long time, double sourceFPS) {
+		double rate = ((fps > 0) ? fps : sourceFPS) / interval;
+		long last = lastTime;
+		if (last == 0 || rate <= 0) {
+			return MAX_TOKENS;
+		}
+
+		return Math.min(tokens + Math.max(time - last, 0) / 1000000000.0 * rate, MAX_TOKENS);
+	}
+
+	/**
+	 * Returns true if a frame at a time would be encoded for this variant. This
+	 * does not take a token, so the vision loop can use it to skip copying frames
+	 * that nothing is due for.
+	 * 
+	 * @param time The time of the frame in nanoseconds
+	 * @param sourceFPS The rate frames arrive at
+	 * @return
+	 */
+	public boolean isDue(long time, double sourceFPS) {
+		return getTokens(time, sourceFPS) >= 1;
+	}
+
+	/**
+	 * Returns true if a frame should be encoded for this variant and takes a token
+	 * for it. A token is added at the variant's rate and each encoded frame takes
+	 * one, so the rate does not depend on how fast frames arrive. This is only
+	 * called by the encoder, so frames that are replaced before they are encoded
+	 * do not use tokens.
+	 * 
+	 * @param time The time of the frame in nanoseconds
+	 * @param sourceFPS The rate frames arrive at
+	 * @return
+	 */
+	public boolean take(long time, double sourceFPS) {
+		double available = getTokens(time, sourceFPS);
+		if (time > lastTime) {
+			lastTime = time;
+		}
+
+		if (available < 1) {
+			tokens = available;
+			return false;
+		}
+
+		tokens = available - 1;
+		return true;
+	}
+
+	/**
+	 * Releases the native memory of the variant. This is only called by the
+	 * encoder once it can no longer be encoding the variant.
+	 */
+	public void release() {
+		params.release();
+		frame.release();
+	}
+
+	/**
+	 * Returns true if this variant has the settings
+	 * 
+	 * @param quality
+	 * @param width
+	 * @param height
+	 * @param fps
+	 * @param interval
+	 * @return
+	 */
+	public boolean matches(int quality, int width, int height, double fps, int interval) {
+		return this.quality == quality && this.width == width && this.height == height && this.fps == fps
+				&& this.interval == interval;
+	}
+
+	public StreamVariant(int quality, int width, int height, double fps, int interval) {
+		this.quality = quality;
+		this.width = width;
+		this.height = height;
+		this.fps = fps;
+		this.interval = interval;
+
+		params = new MatOfInt(Imgcodecs.IMWRITE_JPEG_QUALITY, quality);
+		size = new Size(width, height);
+		frame = new Mat();
+		pending = new AtomicReference<SharedFrame>();
+	}
+}
@@ -20,24 +20,15 @@
  * SOFTWARE.
  */
 
-package org.aluminati3555.aluminativision.pipeline;
-
-import org.opencv.core.MatOfPoint;
-import org.opencv.core.Rect;
+package org.aluminati3555.aluminativision.net;
 
 /**
- * This class holds both a contour and an area
+ * The frames that can be streamed
  * 
  * @author Caleb Heydon
  */
-public class ContourWithArea {
-	public MatOfPoint contour;
-	public Rect rect;
-	public double area;
-	
-	public ContourWithArea(MatOfPoint contour, Rect rect, double area) {
-		this.contour = contour;
-		this.rect = rect;
-		this.area = area;
-	}
+public enum StreamView {
+	// The camera frame, the thresholded frame and the thresholded frame with the
+	// targets drawn on it
+	RAW, THRESHOLD, ANNOTATED
 }
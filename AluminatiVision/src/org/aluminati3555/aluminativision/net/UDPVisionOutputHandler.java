@@ -30,23 +30,57 @@ import java.net.SocketException;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 
+import org.aluminati3555.aluminativision.util.VisionUtil;
+
 /**
  * Sends the vision data as UDP packets
  * 
  * @author Caleb Heydon
  */
 public class UDPVisionOutputHandler implements IVisionOutputHandler {
+	// The first 69 bytes are the original format so older robot code still works
+	public static final int PACKET_SIZE = 139;
+
+	// Then the length of the header and of each target record (one byte each), so
+	// that fields can be added to either without moving the targets for readers
+	// that do not know them
+	public static final int HEADER_SIZE = PACKET_SIZE + 2;
+
+	// After the header is the number of targets (one byte) and a record for each
+	// target. Only the targets that were found are sent.
+	public static final int TARGET_SIZE = 80;
+	public static final int MAX_PACKET_SIZE = HEADER_SIZE + 1 + VisionData.MAX_TARGETS * TARGET_SIZE;
+
 	private int camera;
 
 	private DatagramSocket socket;
 
 	private ByteBuffer buffer;
 	private DatagramPacket packet;
+	private int length;
 
 	/**
 	 * Sends the vision data to the robot
 	 */
 	public synchronized void update(VisionData data) throws IOException {
+		write(data);
+
+		// Stamp the packet as late as possible
+		data.sentTimestamp = VisionUtil.getTime();
+		data.latency = data.sentTimestamp - data.timestamp;
+		buffer.putDouble(85, data.sentTimestamp);
+		buffer.putDouble(93, data.latency);
+
+		packet.setLength(length);
+		socket.send(packet);
+	}
+
+	/**
+	 * Writes the vision data into the packet buffer
+	 * 
+	 * @param data
+	 */
+	public synchronized void write(VisionData data) {
 		// Add camera number
 		data.camera = camera;
 
@@ -61,8 +95,59 @@ public class UDPVisionOutputHandler implements IVisionOutputHandler {
 		buffer.putDouble(45, data.targetWidth);
 		buffer.putDouble(53, data.targetHeight);
 		buffer.putDouble(61, data.targetArea);
+		buffer.putLong(69, data.sequence);
+		buffer.putDouble(77, data.pipelineTimestamp);
+		buffer.putDouble(85, data.sentTimestamp);
+		buffer.putDouble(93, data.latency);
+		buffer.putDouble(101, data.yaw);
+		buffer.putDouble(109, data.pitch);
+		buffer.putInt(117, data.trackId);
+		buffer.putDouble(121, data.velocityX);
+		buffer.putDouble(129, data.velocityY);
+		buffer.put(137, (byte) (data.coasting ? 1 : 0));
+		buffer.put(138, (byte) data.pipeline);
 
-		socket.send(packet);
+		buffer.put(PACKET_SIZE, (byte) HEADER_SIZE);
+		buffer.put(PACKET_SIZE + 1, (byte) TARGET_SIZE);
+
+		int targetCount = Math.min(data.targetCount, VisionData.MAX_TARGETS);
+		buffer.put(HEADER_SIZE, (byte) targetCount);
+		for (int i = 0; i < targetCount; i++) {
+			VisionTarget target = data.targets[i];
+			int offset = HEADER_SIZE + 1 + i * TARGET_SIZE;
+
+			buffer.putDouble(offset, target.score);
+			buffer.putDouble(offset + 8, target.x);
+			buffer.putDouble(offset + 16, target.y);
+			buffer.putDouble(offset + 24, target.width);
+			buffer.putDouble(offset + 32, target.height);
+			buffer.putDouble(offset + 40, target.area);
+			buffer.putInt(offset + 48, target.boxX);
+			buffer.putInt(offset + 52, target.boxY);
+			buffer.putInt(offset + 56, target.boxWidth);
+			buffer.putInt(offset + 60, target.boxHeight);
+			buffer.putDouble(offset + 64, target.yaw);
+			buffer.putDouble(offset + 72, target.pitch);
+		}
+		length = HEADER_SIZE + 1 + targetCount * TARGET_SIZE;
+	}
+
+	/**
+	 * Returns the packet buffer
+	 * 
+	 * @return
+	 */
+	public byte[] getBuffer() {
+		return buffer.array();
+	}
+
+	/**
+	 * Returns the number of bytes in the packet that was last written
+	 * 
+	 * @return
+	 */
+	public int getLength() {
+		return length;
 	}
 
 	public UDPVisionOutputHandler(String address, int port, int camera) throws UnknownHostException, SocketException {
@@ -70,7 +155,7 @@ public class UDPVisionOutputHandler implements IVisionOutputHandler {
 
 		this.socket = new DatagramSocket();
 
-		byte[] bufferBytes = new byte[69];
+		byte[] bufferBytes = new byte[MAX_PACKET_SIZE];
 		this.buffer = ByteBuffer.wrap(bufferBytes);
 		this.packet = new DatagramPacket(bufferBytes, bufferBytes.length);
 
@@ -28,10 +28,29 @@ package org.aluminati3555.aluminativision.net;
  * @author Caleb Heydon
  */
 public class VisionData {
+	// Most targets that are sent per frame
+	public static final int MAX_TARGETS = 8;
+
 	public int camera;
+
+	// Index of the pipeline that made this output when the camera runs more than
+	// one (0 otherwise)
+	public int pipeline;
 	public double fps;
+
+	// Number of the frame since the camera started (gaps are dropped frames)
+	public long sequence;
+
+	// Monotonic times in seconds of when the frame was grabbed, when the pipeline
+	// finished and when the output was sent
 	public double timestamp;
+	public double pipelineTimestamp;
+	public double sentTimestamp;
+
 	public double processingLatency;
+
+	// Age of the measurement when it was sent (seconds)
+	public double latency;
 	
 	public boolean hasTarget;
 	
@@ -43,4 +62,64 @@ public class VisionData {
 	public double targetWidth;
 	public double targetHeight;
 	public double targetArea;
+
+	// Angles to the center of the target in degrees (right and up are positive).
+	// These are only found when the camera has a calibration.
+	public double yaw;
+	public double pitch;
+
+	// Set when the target tracker is on. The ID changes when a new target is
+	// picked up (0 is no track). Coasting targets were not seen in this frame and
+	// are predicted from the velocity (frame units per second).
+	public int trackId;
+	public boolean coasting;
+	public double velocityX;
+	public double velocityY;
+
+	// Every accepted target (best first). Only the first targetCount are valid.
+	// With the tracker on the first target has the filtered position and angles,
+	// and a coasting target is sent as the only one.
+	public int targetCount;
+	public VisionTarget[] targets;
+
+	/**
+	 * Copies other vision data into this one without allocating
+	 * 
+	 * @param data
+	 */
+	public void copyFrom(VisionData data) {
+		camera = data.camera;
+		pipeline = data.pipeline;
+		fps = data.fps;
+		sequence = data.sequence;
+		timestamp = data.timestamp;
+		pipelineTimestamp = data.pipelineTimestamp;
+		sentTimestamp = data.sentTimestamp;
+		processingLatency = data.processingLatency;
+		latency = data.latency;
+		hasTarget = data.hasTarget;
+		x = data.x;
+		y = data.y;
+		targetWidth = data.targetWidth;
+		targetHeight = data.targetHeight;
+		targetArea = data.targetArea;
+		yaw = data.yaw;
+		pitch = data.pitch;
+		trackId = data.trackId;
+		coasting = data.coasting;
+		velocityX = data.velocityX;
+		velocityY = data.velocityY;
+
+		targetCount = data.targetCount;
+		for (int i = 0; i < targetCount; i++) {
+			targets[i].copyFrom(data.targets[i]);
+		}
+	}
+
+	public VisionData() {
+		targets = new VisionTarget[MAX_TARGETS];
+		for (int i = 0; i < targets.length; i++) {
+			targets[i] = new VisionTarget();
+		}
+	}
 }
@@ -0,0 +1,74 @@
+/**
+ * Copyright (c) 2019 Team 3555
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.aluminati3555.aluminativision.net;
+
+/**
+ * This class holds one of the targets found in a frame
+ * 
+ * @author Caleb Heydon
+ */
+public class VisionTarget {
+	// Targets are ranked by score (currently the bounding box area as a fraction
+	// of the frame)
+	public double score;
+
+	// Location of the center in the frame (-1 to 1)
+	public double x;
+	public double y;
+
+	// Size as a fraction of the frame (0 to 1). The area is the blob itself, not
+	// its bounding box.
+	public double width;
+	public double height;
+	public double area;
+
+	// Bounding box in pixels
+	public int boxX;
+	public int boxY;
+	public int boxWidth;
+	public int boxHeight;
+
+	// Angles to the center in degrees when the camera has a calibration
+	public double yaw;
+	public double pitch;
+
+	/**
+	 * Copies another target into this one
+	 * 
+	 * @param target
+	 */
+	public void copyFrom(VisionTarget target) {
+		score = target.score;
+		x = target.x;
+		y = target.y;
+		width = target.width;
+		height = target.height;
+		area = target.area;
+		boxX = target.boxX;
+		boxY = target.boxY;
+		boxWidth = target.boxWidth;
+		boxHeight = target.boxHeight;
+		yaw = target.yaw;
+		pitch = target.pitch;
+	}
+}
@@ -0,0 +1,234 @@
+/**
+ * Copyright (c) 2019 Team 3555
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.aluminati3555.aluminativision.pipeline;
+
+import java.util.Arrays;
+
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Rect;
+
+/**
+ * This class holds the blobs that pass the filters in one frame. Each value is
+ * kept in its own preallocated array (indexed by candidate) so that filling the
+ * store and picking the best candidates does not create any objects once the
+ * arrays are big enough.
+ * 
+ * @author Caleb Heydon
+ */
+public class CandidateStore {
+	public static final int DEFAULT_CAPACITY = 256;
+
+	public int count;
+
+	// Bounding box in full frame pixels
+	public int[] x;
+	public int[] y;
+	public int[] width;
+	public int[] height;
+
+	// Filter values (the area is a fraction of the frame)
+	public double[] area;
+	public double[] density;
+	public double[] ratio;
+
+	// Candidates are ranked by score (highest first)
+	public double[] score;
+
+	// Angle of the long side from horizontal in degrees (counterclockwise from
+	// -90 to 90, NaN until it is measured)
+	public double[] tilt;
+
+	// Outline of each candidate or null if it has not been traced
+	public MatOfPoint[] contours;
+
+	// Connected component label of each candidate (0 if it was not labeled) and
+	// the region it was labeled in (-1 for the whole frame)
+	public int[] label;
+	public int[] labelRegion;
+
+	private int[] top;
+	private int topCount;
+
+	/**
+	 * Returns the number of candidates that can be added before the arrays grow
+	 * 
+	 * @return
+	 */
+	public int getCapacity() {
+		return x.length;
+	}
+
+	/**
+	 * Removes all of the candidates
+	 */
+	public void clear() {
+		for (int i = 0; i < count; i++) {
+			contours[i] = null;
+		}
+
+		count = 0;
+		topCount = 0;
+	}
+
+	/**
+	 * Doubles the size of the arrays
+	 */
+	private void grow() {
+		int capacity = Math.max(1, x.length * 2);
+
+		x = Arrays.copyOf(x, capacity);
+		y = Arrays.copyOf(y, capacity);
+		width = Arrays.copyOf(width, capacity);
+		height = Arrays.copyOf(height, capacity);
+		area = Arrays.copyOf(area, capacity);
+		density = Arrays.copyOf(density, capacity);
+		ratio = Arrays.copyOf(ratio, capacity);
+		score = Arrays.copyOf(score, capacity);
+		tilt = Arrays.copyOf(tilt, capacity);
+		contours = Arrays.copyOf(contours, capacity);
+		label = Arrays.copyOf(label, capacity);
+		labelRegion = Arrays.copyOf(labelRegion, capacity);
+	}
+
+	/**
+	 * Adds a candidate and returns its index
+	 * 
+	 * @param x
+	 * @param y
+	 * @param width
+	 * @param height
+	 * @param area
+	 * @param density
+	 * @param ratio
+	 * @param score
+	 * @return
+	 */
+	public int add(int x, int y, int width, int height, double area, double density, double ratio,
+			double score) {
+		if (count == this.x.length) {
+			grow();
+		}
+
+		int index = count++;
+		this.x[index] = x;
+		this.y[index] = y;
+		this.width[index] = width;
+		this.height[index] = height;
+		this.area[index] = area;
+		this.density[index] = density;
+		this.ratio[index] = ratio;
+		this.score[index] = score;
+		tilt[index] = Double.NaN;
+		contours[index] = null;
+		label[index] = 0;
+		labelRegion[index] = -1;
+
+		return index;
+	}
+
+	/**
+	 * Ranks the best candidates by score in one pass over the candidates. Each
+	 * candidate is only compared with the ones already kept, so this is linear in
+	 * the number of candidates for a small k. Candidates with the same score keep
+	 * the order they were added in.
+	 * 
+	 * @param k The most candidates to keep
+	 * @return The number of candidates kept
+	 */
+	public int selectTop(int k) {
+		k = Math.min(k, count);
+		if (top.length < k) {
+			top = new int[k];
+		}
+
+		topCount = 0;
+		for (int i = 0; i < count && k > 0; i++) {
+			double value = score[i];
+
+			int j;
+			if (topCount < k) {
+				j = topCount++;
+			} else if (value > score[top[k - 1]]) {
+				j = k - 1;
+			} else {
+				continue;
+			}
+
+			while (j > 0 && score[top[j - 1]] < value) {
+				top[j] = top[j - 1];
+				j--;
+			}
+			top[j] = i;
+		}
+
+		return topCount;
+	}
+
+	/**
+	 * Returns the index of a candidate picked by the last call to selectTop
+	 * 
+	 * @param rank 0 is the best candidate
+	 * @return
+	 */
+	public int getTop(int rank) {
+		if (rank >= topCount) {
+			throw new IndexOutOfBoundsException("Rank " + rank + " was not selected");
+		}
+
+		return top[rank];
+	}
+
+	/**
+	 * Copies the bounding box of a candidate into a rect
+	 * 
+	 * @param index
+	 * @param rect
+	 */
+	public void getRect(int index, Rect rect) {
+		rect.x = x[index];
+		rect.y = y[index];
+		rect.width = width[index];
+		rect.height = height[index];
+	}
+
+	public CandidateStore(int capacity) {
+		x = new int[capacity];
+		y = new int[capacity];
+		width = new int[capacity];
+		height = new int[capacity];
+		area = new double[capacity];
+		density = new double[capacity];
+		ratio = new double[capacity];
+		score = new double[capacity];
+		tilt = new double[capacity];
+		contours = new MatOfPoint[capacity];
+		label = new int[capacity];
+		labelRegion = new int[capacity];
+
+		top = new int[2];
+	}
+
+	public CandidateStore() {
+		this(DEFAULT_CAPACITY);
+	}
+}
@@ -0,0 +1,284 @@
+/**
+ * Copyright (c) 2019 Team 3555
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.aluminati3555.aluminativision.pipeline;
+
+import org.aluminati3555.aluminativision.metrics.LatencyHistogram;
+import org.aluminati3555.aluminativision.metrics.MetricsRegistry;
+import org.aluminati3555.aluminativision.net.VisionData;
+import org.aluminati3555.aluminativision.pipeline.PipelineConfig.PipelineMode;
+import org.aluminati3555.aluminativision.util.VisionUtil;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Skips the pipeline when nothing has changed. Each frame is sampled on a grid
+ * and shrunk to a small signature (every cell is the average of 16 samples, so
+ * sensor noise mostly cancels out). When the signature, frame size and config
+ * match the last frame that was processed, the last output and annotated frame
+ * are used again with the timestamps of the new frame. A result is never used
+ * for longer than the maximum reuse age.
+ * 
+ * @author Caleb Heydon
+ */
+public class ChangeDetectionGate implements IVisionPipeline {
+	// Averaging the whole frame down is much slower than sampling it, so only a
+	// grid of pixels is averaged (halving is much faster than other scales)
+	private static final Size SAMPLE_SIZE = new Size(128, 96);
+	private static final Size HALF_SIZE = new Size(64, 48);
+	private static final Size SIGNATURE_SIZE = new Size(32, 24);
+
+	private ConfigurablePipeline pipeline;
+
+	// Largest change in any cell of the signature (0 to 255) that is still the
+	// same frame and the longest time in seconds a result is reused
+	private double tolerance;
+	private double maxReuseAge;
+
+	private Mat sampleFrame;
+	private Mat halfFrame;
+	private Mat signatureFrame;
+	private byte[] signature;
+
+	// The last frame that was processed
+	private boolean hasResult;
+	private byte[] resultSignature;
+	private PipelineConfig resultConfig;
+	private boolean resultAnnotated;
+	private int resultWidth;
+	private int resultHeight;
+	private double resultTimestamp;
+	private Mat resultFrame;
+
+	// The last result as the pipeline made it and the copy that is handed out
+	// (the tracker changes the output after it is returned)
+	private VisionData result;
+	private VisionData output;
+
+	private volatile long hits;
+	private volatile long misses;
+
+	private LatencyHistogram changeDetectionTime;
+
+	/**
+	 * Returns the pipeline that does the work
+	 * 
+	 * @return
+	 */
+	public ConfigurablePipeline getPipeline() {
+		return pipeline;
+	}
+
+	/**
+	 * Returns the output of the last frame
+	 */
+	@Override
+	public VisionData getOutput() {
+		return output;
+	}
+
+	/**
+	 * Returns the thresholded frame of the last frame that was processed
+	 */
+	@Override
+	public Mat getThresholdFrame() {
+		return pipeline.getThresholdFrame();
+	}
+
+	/**
+	 * Sets whether the pipeline draws its targets
+	 */
+	@Override
+	public void setAnnotating(boolean annotating) {
+		pipeline.setAnnotating(annotating);
+	}
+
+	/**
+	 * Returns the number of frames that reused the last result
+	 * 
+	 * @return
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of frames that were processed
+	 * 
+	 * @return
+	 */
+	public long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Returns the fraction of frames that reused the last result
+	 * 
+	 * @return
+	 */
+	public double getHitRate() {
+		long hits = this.hits;
+		long total = hits + misses;
+		return (total == 0) ? 0 : (double) hits / total;
+	}
+
+	/**
+	 * Sets where the time spent comparing frames is recorded
+	 * 
+	 * @param metrics
+	 */
+	public void setMetrics(MetricsRegistry metrics) {
+		changeDetectionTime = metrics.getHistogram(MetricsRegistry.CHANGE_DETECTION);
+	}
+
+	/**
+	 * Returns true if the new signature is within the tolerance of the last frame
+	 * that was processed
+	 * 
+	 * @return
+	 */
+	private boolean matchesResult() {
+		int tolerance = (int) this.tolerance;
+		for (int i = 0; i < signature.length; i++) {
+			if (Math.abs((signature[i] & 0xff) - (resultSignature[i] & 0xff)) > tolerance) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Processes a frame
+	 */
+	@Override
+	public Mat process(Mat frame, double fps) {
+		return process(frame, fps, VisionUtil.getTime(), 0);
+	}
+
+	/**
+	 * Processes a frame unless it matches the last frame that was processed
+	 */
+	@Override
+	public Mat process(Mat frame, double fps, double timestamp, long sequence) {
+		double startTime = VisionUtil.getTime();
+		long time = System.nanoTime();
+
+		// Driver mode does no work, so there is nothing to skip
+		PipelineConfig config = pipeline.getPipelineConfig();
+		Mat input = pipeline.getInput(frame);
+		boolean gated = config.pipelineMode == PipelineMode.PROCESSING && !input.empty();
+
+		boolean same = false;
+		if (gated) {
+			Imgproc.resize(input, sampleFrame, SAMPLE_SIZE, 0, 0, Imgproc.INTER_NEAREST);
+			Imgproc.resize(sampleFrame, halfFrame, HALF_SIZE, 0, 0, Imgproc.INTER_AREA);
+			Imgproc.resize(halfFrame, signatureFrame, SIGNATURE_SIZE, 0, 0, Imgproc.INTER_AREA);
+			int length = (int) (signatureFrame.total() * signatureFrame.channels());
+			if (signature.length != length) {
+				signature = new byte[length];
+				resultSignature = new byte[length];
+				hasResult = false;
+			}
+			signatureFrame.get(0, 0, signature);
+
+			// A result without drawings can not be shown once they are wanted
+			same = hasResult && config == resultConfig && (resultAnnotated || !pipeline.isAnnotating())
+					&& input.width() == resultWidth
+					&& input.height() == resultHeight && timestamp - resultTimestamp <= maxReuseAge
+					&& matchesResult();
+		}
+		changeDetectionTime.recordSince(time);
+
+		if (same) {
+			hits++;
+
+			output.copyFrom(result);
+			output.fps = fps;
+			output.timestamp = timestamp;
+			output.sequence = sequence;
+			output.processingLatency = VisionUtil.getTime() - startTime;
+
+			return resultFrame;
+		}
+
+		resultFrame = pipeline.process(frame, fps, timestamp, sequence);
+		result.copyFrom(pipeline.getOutput());
+		output.copyFrom(result);
+		output.processingLatency = VisionUtil.getTime() - startTime;
+
+		hasResult = gated;
+		if (gated) {
+			misses++;
+
+			// Later frames are compared with this one
+			byte[] temp = resultSignature;
+			resultSignature = signature;
+			signature = temp;
+
+			resultConfig = config;
+			resultAnnotated = pipeline.isAnnotating();
+			resultWidth = input.width();
+			resultHeight = input.height();
+			resultTimestamp = timestamp;
+		}
+
+		return resultFrame;
+	}
+
+	/**
+	 * Releases all memory being used by the gate and the pipeline
+	 */
+	@Override
+	public void release() {
+		sampleFrame.release();
+		halfFrame.release();
+		signatureFrame.release();
+		pipeline.release();
+	}
+
+	/**
+	 * Creates a gate in front of a pipeline
+	 * 
+	 * @param pipeline
+	 * @param tolerance   Largest change in any cell of the signature (0 to 255)
+	 *                    that is still the same frame
+	 * @param maxReuseAge Longest time in seconds a result is reused
+	 */
+	public ChangeDetectionGate(ConfigurablePipeline pipeline, double tolerance, double maxReuseAge) {
+		this.pipeline = pipeline;
+		this.tolerance = tolerance;
+		this.maxReuseAge = maxReuseAge;
+
+		sampleFrame = new Mat();
+		halfFrame = new Mat();
+		signatureFrame = new Mat();
+		signature = new byte[0];
+		resultSignature = new byte[0];
+
+		result = new VisionData();
+		output = new VisionData();
+
+		setMetrics(new MetricsRegistry("pipeline"));
+	}
+}
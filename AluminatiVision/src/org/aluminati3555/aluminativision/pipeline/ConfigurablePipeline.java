@@ -23,51 +23,88 @@
 package org.aluminati3555.aluminativision.pipeline;
 
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Collections;
 
+import org.aluminati3555.aluminativision.calibration.AngleTable;
+import org.aluminati3555.aluminativision.calibration.CameraCalibration;
+import org.aluminati3555.aluminativision.metrics.LatencyHistogram;
+import org.aluminati3555.aluminativision.metrics.MetricsRegistry;
 import org.aluminati3555.aluminativision.net.VisionData;
+import org.aluminati3555.aluminativision.net.VisionTarget;
+import org.aluminati3555.aluminativision.pipeline.PipelineConfig.BlobBackend;
 import org.aluminati3555.aluminativision.pipeline.PipelineConfig.PipelineMode;
 import org.aluminati3555.aluminativision.pipeline.PipelineConfig.TargetMode;
 import org.aluminati3555.aluminativision.util.VisionUtil;
 import org.opencv.core.Core;
+import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfPoint;
 import org.opencv.core.Point;
 import org.opencv.core.Rect;
+import org.opencv.core.RotatedRect;
 import org.opencv.core.Scalar;
 import org.opencv.core.Size;
 import org.opencv.imgproc.Imgproc;
 
 /**
- * A pipeline that can be configured
+ * A pipeline that can be configured. The work is split into stages (threshold,
+ * detect and annotate) that only use the memory in a PipelineFrame so that the
+ * stages can also be run on separate threads by a StagedPipeline.
  * 
  * @author Caleb Heydon
  */
 public class ConfigurablePipeline implements IVisionPipeline {
 	private static final Scalar GREEN = new Scalar(0, 255, 0);
 
+	// Number of values per blob from connectedComponentsWithStats
+	private static final int STAT_COUNT = 5;
+	private static final Scalar BLUE = new Scalar(255, 0, 0);
+	private static final Scalar BLACK = new Scalar(0);
+
 	private static final double DILATE_SIZE = 1.5;
 	private static final Mat DILATE_ELEMENT = Imgproc.getStructuringElement(Imgproc.MORPH_RECT,
 			new Size(2 * DILATE_SIZE + 1, 2 * DILATE_SIZE + 1), new Point(DILATE_SIZE, DILATE_SIZE));
 
-	private VisionData visionData;
+	// Regions closer than this are merged so that dilating one region never reads
+	// pixels from another
+	private static final int REGION_MARGIN = (int) Math.ceil(2 * DILATE_SIZE + 1);
+
+	// Regions covering more of the frame than this are not worth the extra work
+	private static final double MAX_REGION_COVERAGE = 0.75;
+
 	private PipelineConfig pipelineConfig;
 
 	private Scalar minScalar;
 	private Scalar maxScalar;
 
-	private Mat hierarchy;
-	private Mat thresholdFrame;
+	private PipelineFrame pipelineFrame;
+	private ThresholdLUTBuilder lutBuilder;
 
-	private ArrayList<MatOfPoint> contours;
-	private ArrayList<ContourWithArea> contoursWithAreas;
+	// Angles of every pixel for the frame size that was last processed
+	private volatile CameraCalibration calibration;
+	private volatile AngleTable angleTable;
 
-	private Mat outputFrame;
+	// Last target for region of interest tracking (center, size and motion per
+	// frame in pixels). It is written by detect and read by threshold, which can
+	// be on different threads, so locked is written last.
+	private volatile boolean locked;
+	private volatile double trackX;
+	private volatile double trackY;
+	private volatile double trackWidth;
+	private volatile double trackHeight;
+	private volatile double velocityX;
+	private volatile double velocityY;
+	private int framesSinceSearch;
 
-	private Point upperLeft;
-	private Point upperRight;
-	private Point lowerLeft;
-	private Point lowerRight;
+	private volatile boolean annotating = true;
+
+	private LatencyHistogram coarseSearchTime;
+	private LatencyHistogram colorConvertTime;
+	private LatencyHistogram thresholdTime;
+	private LatencyHistogram morphologyTime;
+	private LatencyHistogram contoursTime;
+	private LatencyHistogram filteringTime;
+	private LatencyHistogram annotateTime;
 
 	/**
 	 * Returns the pipeline configuration
@@ -82,7 +119,34 @@ public class ConfigurablePipeline implements IVisionPipeline {
 	 * Gets the vision output
 	 */
 	public VisionData getOutput() {
-		return visionData;
+		return pipelineFrame.visionData;
+	}
+
+	/**
+	 * Returns the thresholded frame of the last frame (null in driver mode)
+	 */
+	@Override
+	public Mat getThresholdFrame() {
+		return (pipelineFrame.config == null || pipelineFrame.config.pipelineMode == PipelineMode.DRIVER) ? null
+				: pipelineFrame.thresholdFrame;
+	}
+
+	/**
+	 * Sets whether the targets are drawn on the output frame. Frames that have
+	 * already started keep the setting they started with.
+	 */
+	@Override
+	public void setAnnotating(boolean annotating) {
+		this.annotating = annotating;
+	}
+
+	/**
+	 * Returns true if the targets are being drawn on the output frame
+	 * 
+	 * @return
+	 */
+	public boolean isAnnotating() {
+		return annotating;
 	}
 
 	/**
@@ -97,197 +161,1076 @@ public class ConfigurablePipeline implements IVisionPipeline {
 			maxScalar = new Scalar(pipelineConfig.thresholdHueMax, pipelineConfig.thresholdSaturationMax,
 					pipelineConfig.thresholdValueMax);
 			this.pipelineConfig = pipelineConfig;
+
+			// Frames use hsv until the new table is ready
+			if (pipelineConfig.lutEnabled) {
+				if (lutBuilder == null) {
+					lutBuilder = new ThresholdLUTBuilder();
+					lutBuilder.start();
+				}
+
+				lutBuilder.request(minScalar, maxScalar, pipelineConfig.lutBits);
+			}
 		}
 	}
 
 	/**
-	 * Picks a group of contours for dual target modes
+	 * Sets the calibration that is used to find the angles to targets. The angle
+	 * table is built here for the expected frame size so that the first frames
+	 * do not wait for it.
+	 * 
+	 * @param calibration The calibration or null to not find angles
+	 * @param width       Expected frame size
+	 * @param height
 	 */
-	public void sortContours(ArrayList<ContourWithArea> contours) {
-		if (contours.size() < 2) {
-			return;
+	public void setCalibration(CameraCalibration calibration, int width, int height) {
+		this.calibration = calibration;
+		angleTable = (calibration == null) ? null : calibration.createAngleTable(width, height);
+	}
+
+	/**
+	 * Returns the angle table for a frame. The table is only built when the
+	 * calibration or the frame size changes.
+	 * 
+	 * @param frame
+	 * @return The table or null if there is no calibration
+	 */
+	private AngleTable getAngleTable(Mat frame) {
+		CameraCalibration calibration = this.calibration;
+		if (calibration == null) {
+			return null;
 		}
 
-		contours.sort(new Comparator<ContourWithArea>() {
-			public int compare(ContourWithArea contour1, ContourWithArea contour2) {
-				if (contour1.area < contour2.area) {
-					return 1;
-				} else if (contour1.area == contour2.area) {
-					return 0;
-				} else {
-					return -1;
+		AngleTable table = angleTable;
+		if (table == null || table.calibration != calibration || table.width != frame.width()
+				|| table.height != frame.height()) {
+			table = calibration.createAngleTable(frame.width(), frame.height());
+			angleTable = table;
+		}
+
+		return table;
+	}
+
+	/**
+	 * Sets where the time of each stage is recorded
+	 * 
+	 * @param metrics
+	 */
+	public void setMetrics(MetricsRegistry metrics) {
+		setMetrics(metrics, "");
+	}
+
+	/**
+	 * Sets where the time of each stage is recorded. Pipelines that run on
+	 * different threads need different prefixes, since each histogram is only
+	 * recorded by one thread.
+	 * 
+	 * @param metrics
+	 * @param prefix Added to the start of every stage name
+	 */
+	public void setMetrics(MetricsRegistry metrics, String prefix) {
+		coarseSearchTime = metrics.getHistogram(prefix + MetricsRegistry.COARSE_SEARCH);
+		colorConvertTime = metrics.getHistogram(prefix + MetricsRegistry.COLOR_CONVERT);
+		thresholdTime = metrics.getHistogram(prefix + MetricsRegistry.THRESHOLD);
+		morphologyTime = metrics.getHistogram(prefix + MetricsRegistry.MORPHOLOGY);
+		contoursTime = metrics.getHistogram(prefix + MetricsRegistry.CONTOURS);
+		filteringTime = metrics.getHistogram(prefix + MetricsRegistry.FILTERING);
+		annotateTime = metrics.getHistogram(prefix + MetricsRegistry.ANNOTATE);
+	}
+
+	/**
+	 * Returns the frame that should be processed in place of the camera frame
+	 * 
+	 * @param frame
+	 * @return
+	 */
+	protected Mat getInput(Mat frame) {
+		return frame;
+	}
+
+	/**
+	 * Prepares a pipeline frame for a new camera frame and resets the output
+	 * 
+	 * @param pipelineFrame
+	 * @param frame
+	 * @param fps
+	 * @param copy          Copies the camera frame so that the caller can reuse it
+	 */
+	protected void begin(PipelineFrame pipelineFrame, Mat frame, double fps, boolean copy) {
+		synchronized (this) {
+			pipelineFrame.config = pipelineConfig;
+			pipelineFrame.minScalar = minScalar;
+			pipelineFrame.maxScalar = maxScalar;
+
+			// Swap in a new lookup table between frames
+			pipelineFrame.lut = null;
+			if (pipelineConfig.lutEnabled && lutBuilder != null) {
+				ThresholdLUT lut = lutBuilder.getTable();
+				if (lut != null && lut.matches(minScalar, maxScalar)) {
+					pipelineFrame.lut = lut;
 				}
 			}
-		});
+		}
+
+		frame = getInput(frame);
+		if (copy) {
+			frame.copyTo(pipelineFrame.inputCopy);
+			pipelineFrame.input = pipelineFrame.inputCopy;
+		} else {
+			pipelineFrame.input = frame;
+		}
+
+		pipelineFrame.fps = fps;
+		pipelineFrame.annotate = annotating;
+		pipelineFrame.sharedHSVFrame = null;
+		pipelineFrame.usingRegions = false;
+		pipelineFrame.regionCount = 0;
+		pipelineFrame.hasTargetRect = false;
+		pipelineFrame.hasQuadrilateral = false;
+
+		VisionData visionData = pipelineFrame.visionData;
+		visionData.fps = fps;
+		visionData.hasTarget = false;
+		visionData.targetWidth = 0;
+		visionData.targetHeight = 0;
+		visionData.targetArea = 0;
+		visionData.x = 0;
+		visionData.y = 0;
+		visionData.yaw = 0;
+		visionData.pitch = 0;
+		visionData.targetCount = 0;
 	}
 
 	/**
-	 * Processes a frame
+	 * Picks the region of the frame to process from the last target. The whole
+	 * frame is searched when there is no target or when it is time for a full
+	 * search.
+	 * 
+	 * @param pipelineFrame
+	 * @return True if only the region of interest should be processed
 	 */
-	public Mat process(Mat frame, double fps) {
-		synchronized (this) {
-			visionData.fps = fps;
-			visionData.hasTarget = false;
-			visionData.targetWidth = 0;
-			visionData.targetHeight = 0;
-			visionData.targetArea = 0;
-			visionData.x = 0;
-			visionData.y = 0;
-
-			if (pipelineConfig.pipelineMode == PipelineMode.DRIVER) {
-				return frame;
+	private boolean selectROI(PipelineFrame pipelineFrame) {
+		PipelineConfig config = pipelineFrame.config;
+		if (!config.roiEnabled || !locked) {
+			framesSinceSearch = 0;
+			return false;
+		}
+
+		if (++framesSinceSearch >= config.roiSearchInterval) {
+			framesSinceSearch = 0;
+			return false;
+		}
+
+		double width = trackWidth;
+		double height = trackHeight;
+		double velocityX = this.velocityX;
+		double velocityY = this.velocityY;
+
+		// Center the window where the target should be now
+		double centerX = trackX + velocityX;
+		double centerY = trackY + velocityY;
+
+		double halfWidth = width * (0.5 + config.roiPadding) + Math.abs(velocityX) * config.roiVelocityScale
+				+ config.roiMinimumPadding;
+		double halfHeight = height * (0.5 + config.roiPadding) + Math.abs(velocityY) * config.roiVelocityScale
+				+ config.roiMinimumPadding;
+
+		Mat input = pipelineFrame.input;
+		int x1 = Math.max(0, (int) Math.floor(centerX - halfWidth));
+		int y1 = Math.max(0, (int) Math.floor(centerY - halfHeight));
+		int x2 = Math.min(input.width(), (int) Math.ceil(centerX + halfWidth));
+		int y2 = Math.min(input.height(), (int) Math.ceil(centerY + halfHeight));
+		if (x2 <= x1 || y2 <= y1) {
+			return false;
+		}
+
+		if ((double) (x2 - x1) * (y2 - y1) > MAX_REGION_COVERAGE * input.width() * input.height()) {
+			return false;
+		}
+
+		Rect roi = pipelineFrame.addRegion();
+		roi.x = x1;
+		roi.y = y1;
+		roi.width = x2 - x1;
+		roi.height = y2 - y1;
+
+		return true;
+	}
+
+	/**
+	 * Adds a region to process and merges it with any regions it is close to
+	 * 
+	 * @param pipelineFrame
+	 * @param x1
+	 * @param y1
+	 * @param x2
+	 * @param y2
+	 */
+	private void addMergedRegion(PipelineFrame pipelineFrame, int x1, int y1, int x2, int y2) {
+		ArrayList<Rect> regions = pipelineFrame.regions;
+
+		for (int i = 0; i < pipelineFrame.regionCount; i++) {
+			Rect region = regions.get(i);
+			if (region.x - REGION_MARGIN < x2 && x1 < region.x + region.width + REGION_MARGIN
+					&& region.y - REGION_MARGIN < y2 && y1 < region.y + region.height + REGION_MARGIN) {
+				x1 = Math.min(x1, region.x);
+				y1 = Math.min(y1, region.y);
+				x2 = Math.max(x2, region.x + region.width);
+				y2 = Math.max(y2, region.y + region.height);
+
+				// Remove the region and check the rest again since the new region grew
+				Collections.swap(regions, i, pipelineFrame.regionCount - 1);
+				pipelineFrame.regionCount--;
+				i = -1;
 			}
+		}
 
-			// Convert to hsv
-			Imgproc.cvtColor(frame, thresholdFrame, Imgproc.COLOR_BGR2HSV);
+		Rect region = pipelineFrame.addRegion();
+		region.x = x1;
+		region.y = y1;
+		region.width = x2 - x1;
+		region.height = y2 - y1;
+	}
 
-			// Thresholding
-			Core.inRange(thresholdFrame, minScalar, maxScalar, thresholdFrame);
+	/**
+	 * Finds candidate targets on a downscaled frame and adds a region around each
+	 * of them to process at full resolution
+	 * 
+	 * @param pipelineFrame
+	 * @return True if only the regions should be processed
+	 */
+	private boolean coarseSearch(PipelineFrame pipelineFrame) {
+		PipelineConfig config = pipelineFrame.config;
+		long time = System.nanoTime();
 
-			// Dilate
-			Imgproc.dilate(thresholdFrame, thresholdFrame, DILATE_ELEMENT);
+		Mat input = pipelineFrame.input;
+		int levels = Math.min(config.pyramidLevels, PipelineConfig.MAX_PYRAMID_LEVELS);
+		// Each level averages 2x2 blocks (like pyrDown without the gaussian blur,
+		// which costs about three times as much)
+		Mat coarseFrame = input;
+		for (int i = 0; i < levels; i++) {
+			Mat pyramidFrame = pipelineFrame.pyramidFrames[i];
+			pipelineFrame.pyramidSize.width = coarseFrame.width() / 2;
+			pipelineFrame.pyramidSize.height = coarseFrame.height() / 2;
+			Imgproc.resize(coarseFrame, pyramidFrame, pipelineFrame.pyramidSize, 0, 0, Imgproc.INTER_AREA);
+			coarseFrame = pyramidFrame;
+		}
 
-			// Contours
-			contours.clear();
-			contoursWithAreas.clear();
+		if (pipelineFrame.lut != null) {
+			pipelineFrame.lut.apply(coarseFrame, pipelineFrame.coarseThresholdFrame, pipelineFrame);
+		} else {
+			Imgproc.cvtColor(coarseFrame, pipelineFrame.coarseHSVFrame, Imgproc.COLOR_BGR2HSV);
+			Core.inRange(pipelineFrame.coarseHSVFrame, pipelineFrame.minScalar, pipelineFrame.maxScalar,
+					pipelineFrame.coarseThresholdFrame);
+		}
 
-			Imgproc.findContours(thresholdFrame, contours, hierarchy, Imgproc.RETR_EXTERNAL,
-					Imgproc.CHAIN_APPROX_SIMPLE);
+		// Use the same kind of blobs as the full resolution search
+		if (config.blobBackend == BlobBackend.CONNECTED_COMPONENTS) {
+			Imgproc.connectedComponentsWithStats(pipelineFrame.coarseThresholdFrame, pipelineFrame.labels,
+					pipelineFrame.stats, pipelineFrame.centroids, 8, CvType.CV_32S);
+			int count = copyStats(pipelineFrame);
+			int[] componentStats = pipelineFrame.componentStats;
 
-			double frameArea = (double) (frame.width() * frame.height());
+			// Label 0 is the background
+			for (int i = 1; i < count; i++) {
+				int index = i * STAT_COUNT;
+				addCoarseRegion(pipelineFrame, coarseFrame, componentStats[index + Imgproc.CC_STAT_AREA],
+						componentStats[index + Imgproc.CC_STAT_LEFT], componentStats[index + Imgproc.CC_STAT_TOP],
+						componentStats[index + Imgproc.CC_STAT_WIDTH], componentStats[index + Imgproc.CC_STAT_HEIGHT]);
+			}
+		} else {
+			ArrayList<MatOfPoint> contours = pipelineFrame.regionContours;
+			contours.clear();
+			Imgproc.findContours(pipelineFrame.coarseThresholdFrame, contours, pipelineFrame.hierarchy,
+					Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
 
-			// Filter contours
 			for (int i = 0; i < contours.size(); i++) {
-				double actualArea = Imgproc.contourArea(contours.get(i));
-				double area = actualArea / frameArea;
-
 				Rect rect = Imgproc.boundingRect(contours.get(i));
-				double ratio = (double) (rect.width) / rect.height;
+				addCoarseRegion(pipelineFrame, coarseFrame, Imgproc.contourArea(contours.get(i)), rect.x, rect.y,
+						rect.width, rect.height);
+			}
+			releaseContours(contours);
+		}
+		coarseSearchTime.recordSince(time);
+
+		double regionArea = 0;
+		for (int i = 0; i < pipelineFrame.regionCount; i++) {
+			Rect region = pipelineFrame.regions.get(i);
+			regionArea += (double) region.width * region.height;
+		}
+
+		if (regionArea > MAX_REGION_COVERAGE * input.width() * input.height()) {
+			pipelineFrame.regionCount = 0;
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Adds a region around a blob from the coarse search if it is close enough to
+	 * passing the filters
+	 * 
+	 * @param pipelineFrame
+	 * @param coarseFrame
+	 * @param actualArea    Area of the blob in coarse pixels
+	 * @param x             Bounding box of the blob in coarse pixels
+	 * @param y
+	 * @param width
+	 * @param height
+	 */
+	private void addCoarseRegion(PipelineFrame pipelineFrame, Mat coarseFrame, double actualArea, int x, int y,
+			int width, int height) {
+		PipelineConfig config = pipelineFrame.config;
+
+		// The filters use fractions of the frame, so only the tolerance changes
+		double low = 1 - config.pyramidTolerance;
+		double high = 1 + config.pyramidTolerance;
+		double area = actualArea / ((double) coarseFrame.width() * coarseFrame.height());
+		double ratio = (double) width / height;
+		double density = VisionUtil.computeDensity(actualArea, (double) width * height);
+
+		if (area < config.contourAreaMin * low || area > config.contourAreaMax * high
+				|| ratio < config.contourRatioMin * low || ratio > config.contourRatioMax * high
+				|| density < config.contourDensityMin * low || density > config.contourDensityMax * high) {
+			return;
+		}
+
+		Mat input = pipelineFrame.input;
+		double scaleX = (double) input.width() / coarseFrame.width();
+		double scaleY = (double) input.height() / coarseFrame.height();
+		double paddingX = scaleX + config.pyramidPadding;
+		double paddingY = scaleY + config.pyramidPadding;
+
+		int x1 = Math.max(0, (int) Math.floor(x * scaleX - paddingX));
+		int y1 = Math.max(0, (int) Math.floor(y * scaleY - paddingY));
+		int x2 = Math.min(input.width(), (int) Math.ceil((x + width) * scaleX + paddingX));
+		int y2 = Math.min(input.height(), (int) Math.ceil((y + height) * scaleY + paddingY));
+		addMergedRegion(pipelineFrame, x1, y1, x2, y2);
+	}
+
+	/**
+	 * Remembers where the target was for region of interest tracking
+	 * 
+	 * @param x
+	 * @param y
+	 * @param width
+	 * @param height
+	 */
+	private void track(double x, double y, double width, double height) {
+		double centerX = x + width / 2;
+		double centerY = y + height / 2;
+
+		if (locked) {
+			velocityX = centerX - trackX;
+			velocityY = centerY - trackY;
+		} else {
+			velocityX = 0;
+			velocityY = 0;
+		}
+
+		trackX = centerX;
+		trackY = centerY;
+		trackWidth = width;
+		trackHeight = height;
+		locked = true;
+	}
+
+	/**
+	 * Converts the frame to hsv, thresholds it and dilates the result
+	 * 
+	 * @param pipelineFrame
+	 */
+	protected void threshold(PipelineFrame pipelineFrame) {
+		if (pipelineFrame.config.pipelineMode == PipelineMode.DRIVER) {
+			return;
+		}
+
+		// Only work on the region of interest or the candidates from a coarse search
+		pipelineFrame.usingRegions = selectROI(pipelineFrame)
+				|| (pipelineFrame.config.pyramidLevels > 0 && coarseSearch(pipelineFrame));
+		if (pipelineFrame.usingRegions) {
+			thresholdRegions(pipelineFrame);
+			return;
+		}
+
+		long time = System.nanoTime();
+
+		if (pipelineFrame.lut != null) {
+			// Threshold the BGR frame directly
+			pipelineFrame.lut.apply(pipelineFrame.input, pipelineFrame.thresholdFrame, pipelineFrame);
+			time = thresholdTime.recordSince(time);
+		} else {
+			// Convert to hsv unless it was done for several pipelines
+			Mat hsvFrame = pipelineFrame.sharedHSVFrame;
+			if (hsvFrame == null) {
+				hsvFrame = pipelineFrame.hsvFrame;
+				Imgproc.cvtColor(pipelineFrame.input, hsvFrame, Imgproc.COLOR_BGR2HSV);
+				time = colorConvertTime.recordSince(time);
+			}
+
+			// Thresholding
+			Core.inRange(hsvFrame, pipelineFrame.minScalar, pipelineFrame.maxScalar, pipelineFrame.thresholdFrame);
+			time = thresholdTime.recordSince(time);
+		}
+
+		// Dilate
+		Imgproc.dilate(pipelineFrame.thresholdFrame, pipelineFrame.thresholdFrame, DILATE_ELEMENT);
+		morphologyTime.recordSince(time);
+	}
+
+	/**
+	 * Converts, thresholds and dilates only the regions. The rest of the threshold
+	 * frame is cleared so that it can still be drawn.
+	 * 
+	 * @param pipelineFrame
+	 */
+	private void thresholdRegions(PipelineFrame pipelineFrame) {
+		Mat input = pipelineFrame.input;
+		ThresholdLUT lut = pipelineFrame.lut;
+		Mat sharedHSVFrame = (lut == null) ? pipelineFrame.sharedHSVFrame : null;
+		if (lut == null && sharedHSVFrame == null) {
+			pipelineFrame.hsvFrame.create(input.rows(), input.cols(), input.type());
+		}
+		pipelineFrame.thresholdFrame.create(input.rows(), input.cols(), CvType.CV_8UC1);
+
+		long time = System.nanoTime();
+		pipelineFrame.thresholdFrame.setTo(BLACK);
+
+		long colorConvertNanos = 0;
+		long thresholdNanos = System.nanoTime() - time;
+		long morphologyNanos = 0;
+
+		for (int i = 0; i < pipelineFrame.regionCount; i++) {
+			Rect region = pipelineFrame.regions.get(i);
+			Mat inputRegion = input.submat(region);
+			Mat hsvRegion = null;
+			if (sharedHSVFrame != null) {
+				hsvRegion = sharedHSVFrame.submat(region);
+			} else if (lut == null) {
+				hsvRegion = pipelineFrame.hsvFrame.submat(region);
+			}
+			Mat thresholdRegion = pipelineFrame.thresholdFrame.submat(region);
+
+			time = System.nanoTime();
+			long now;
+			if (lut != null) {
+				lut.apply(inputRegion, thresholdRegion, pipelineFrame);
+			} else {
+				if (sharedHSVFrame == null) {
+					Imgproc.cvtColor(inputRegion, hsvRegion, Imgproc.COLOR_BGR2HSV);
+					now = System.nanoTime();
+					colorConvertNanos += now - time;
+					time = now;
+				}
+
+				Core.inRange(hsvRegion, pipelineFrame.minScalar, pipelineFrame.maxScalar, thresholdRegion);
+			}
+			now = System.nanoTime();
+			thresholdNanos += now - time;
+			time = now;
+
+			Imgproc.dilate(thresholdRegion, thresholdRegion, DILATE_ELEMENT);
+			morphologyNanos += System.nanoTime() - time;
+
+			inputRegion.release();
+			if (hsvRegion != null) {
+				hsvRegion.release();
+			}
+			thresholdRegion.release();
+		}
+
+		if (lut == null && sharedHSVFrame == null) {
+			colorConvertTime.record(colorConvertNanos);
+		}
+		thresholdTime.record(thresholdNanos);
+		morphologyTime.record(morphologyNanos);
+	}
+
+	/**
+	 * Returns true if a blob passes the contour filters
+	 * 
+	 * @param config
+	 * @param area    Fraction of the frame
+	 * @param ratio   Width over height
+	 * @param density Fraction of the bounding box that is filled
+	 * @return
+	 */
+	private static boolean passesFilters(PipelineConfig config, double area, double ratio, double density) {
+		return area >= config.contourAreaMin && area <= config.contourAreaMax && ratio >= config.contourRatioMin
+				&& ratio <= config.contourRatioMax && density >= config.contourDensityMin
+				&& density <= config.contourDensityMax;
+	}
+
+	/**
+	 * Releases the contours from the last frame
+	 * 
+	 * @param contours
+	 */
+	private static void releaseContours(ArrayList<MatOfPoint> contours) {
+		for (int i = 0; i < contours.size(); i++) {
+			contours.get(i).release();
+		}
+		contours.clear();
+	}
+
+	/**
+	 * Finds the contours in the threshold frame (or its regions) and keeps the
+	 * ones that pass the filters
+	 * 
+	 * @param pipelineFrame
+	 * @return The time spent finding contours in nanoseconds
+	 */
+	private long findContours(PipelineFrame pipelineFrame) {
+		PipelineConfig config = pipelineFrame.config;
+		ArrayList<MatOfPoint> contours = pipelineFrame.contours;
+		long time = System.nanoTime();
 
-				double boxArea = VisionUtil.computeBoxArea(rect);
-				double density = VisionUtil.computeDensity(actualArea, boxArea);
+		if (pipelineFrame.usingRegions) {
+			// Contours are offset so that they are in full frame coordinates
+			ArrayList<MatOfPoint> regionContours = pipelineFrame.regionContours;
+			for (int i = 0; i < pipelineFrame.regionCount; i++) {
+				Rect region = pipelineFrame.regions.get(i);
+				pipelineFrame.regionOffset.x = region.x;
+				pipelineFrame.regionOffset.y = region.y;
 
-				if (area < pipelineConfig.contourAreaMin || area > pipelineConfig.contourAreaMax
-						|| ratio < pipelineConfig.contourRatioMin || ratio > pipelineConfig.contourRatioMax
-						|| density < pipelineConfig.contourDensityMin || density > pipelineConfig.contourDensityMax) {
-					contours.remove(i);
-					i--;
-					continue;
+				Mat thresholdRegion = pipelineFrame.thresholdFrame.submat(region);
+				regionContours.clear();
+				Imgproc.findContours(thresholdRegion, regionContours, pipelineFrame.hierarchy,
+						Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE, pipelineFrame.regionOffset);
+				for (int j = 0; j < regionContours.size(); j++) {
+					contours.add(regionContours.get(j));
 				}
+				thresholdRegion.release();
+			}
+		} else {
+			Imgproc.findContours(pipelineFrame.thresholdFrame, contours, pipelineFrame.hierarchy,
+					Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
+		}
+		long extractionNanos = System.nanoTime() - time;
+
+		CandidateStore candidates = pipelineFrame.candidates;
+		double frameArea = (double) (pipelineFrame.input.width() * pipelineFrame.input.height());
+		for (int i = 0; i < contours.size(); i++) {
+			double actualArea = Imgproc.contourArea(contours.get(i));
+			Rect rect = Imgproc.boundingRect(contours.get(i));
+			double boxArea = VisionUtil.computeBoxArea(rect);
 
-				contoursWithAreas.add(new ContourWithArea(contours.get(i), rect, boxArea));
+			double area = actualArea / frameArea;
+			double ratio = (double) (rect.width) / rect.height;
+			double density = VisionUtil.computeDensity(actualArea, boxArea);
+			if (passesFilters(config, area, ratio, density)) {
+				int index = candidates.add(rect.x, rect.y, rect.width, rect.height, area, density, ratio, boxArea);
+				candidates.contours[index] = contours.get(i);
 			}
+		}
+
+		return extractionNanos;
+	}
 
-			Imgproc.cvtColor(thresholdFrame, outputFrame, Imgproc.COLOR_GRAY2RGB);
+	/**
+	 * Labels the blobs in the threshold frame (or its regions) with
+	 * connectedComponentsWithStats, which gives the area and bounding box of every
+	 * blob in one call, and keeps the ones that pass the filters. No contours are
+	 * found (see traceContour). The area is the number of pixels in the blob, so
+	 * unlike a contour's area it does not include holes.
+	 * 
+	 * @param pipelineFrame
+	 * @return The time spent labeling in nanoseconds
+	 */
+	private long findComponents(PipelineFrame pipelineFrame) {
+		long labelNanos = 0;
 
-			if (contours.size() > 0) {
-				sortContours(contoursWithAreas);
+		if (pipelineFrame.usingRegions) {
+			for (int i = 0; i < pipelineFrame.regionCount; i++) {
+				Rect region = pipelineFrame.regions.get(i);
+				Mat thresholdRegion = pipelineFrame.thresholdFrame.submat(region);
 
-				Rect rect1 = contoursWithAreas.get(0).rect;
-				if (pipelineConfig.targetMode == TargetMode.SINGLE) {
-					Imgproc.rectangle(outputFrame, rect1, GREEN, 3);
+				// Each region keeps its labels so that its blobs can be traced later
+				if (pipelineFrame.regionLabels.size() == i) {
+					pipelineFrame.regionLabels.add(new Mat());
 				}
 
-				if ((pipelineConfig.targetMode == TargetMode.DUAL_HORIZONTAL
-						|| pipelineConfig.targetMode == TargetMode.DUAL_VERTICAL) && contours.size() > 1) {
-					visionData.hasTarget = true;
+				long time = System.nanoTime();
+				Imgproc.connectedComponentsWithStats(thresholdRegion, pipelineFrame.regionLabels.get(i),
+						pipelineFrame.stats, pipelineFrame.centroids, 8, CvType.CV_32S);
+				labelNanos += System.nanoTime() - time;
+
+				addComponents(pipelineFrame, i, region.x, region.y);
+				thresholdRegion.release();
+			}
+		} else {
+			long time = System.nanoTime();
+			Imgproc.connectedComponentsWithStats(pipelineFrame.thresholdFrame, pipelineFrame.labels,
+					pipelineFrame.stats, pipelineFrame.centroids, 8, CvType.CV_32S);
+			labelNanos = System.nanoTime() - time;
+
+			addComponents(pipelineFrame, -1, 0, 0);
+		}
+
+		return labelNanos;
+	}
+
+	/**
+	 * Copies the stats from the last connectedComponentsWithStats call into the
+	 * component stats array
+	 * 
+	 * @param pipelineFrame
+	 * @return The number of labels (including the background)
+	 */
+	private static int copyStats(PipelineFrame pipelineFrame) {
+		Mat stats = pipelineFrame.stats;
+
+		// Copy all of the stats at once
+		int count = stats.rows();
+		int size = count * STAT_COUNT;
+		if (pipelineFrame.componentStats.length < size) {
+			pipelineFrame.componentStats = new int[size];
+		}
+		stats.get(0, 0, pipelineFrame.componentStats);
+
+		return count;
+	}
+
+	/**
+	 * Filters the blobs from the last connectedComponentsWithStats call
+	 * 
+	 * @param pipelineFrame
+	 * @param region        Index of the labeled region or -1 for the whole frame
+	 * @param offsetX       Offset of the labeled region in the frame
+	 * @param offsetY
+	 */
+	private void addComponents(PipelineFrame pipelineFrame, int region, int offsetX, int offsetY) {
+		PipelineConfig config = pipelineFrame.config;
+		CandidateStore candidates = pipelineFrame.candidates;
+		int count = copyStats(pipelineFrame);
+		int[] componentStats = pipelineFrame.componentStats;
+
+		double frameArea = (double) (pipelineFrame.input.width() * pipelineFrame.input.height());
+
+		// Label 0 is the background
+		for (int i = 1; i < count; i++) {
+			int index = i * STAT_COUNT;
+			int width = componentStats[index + Imgproc.CC_STAT_WIDTH];
+			int height = componentStats[index + Imgproc.CC_STAT_HEIGHT];
+			double actualArea = componentStats[index + Imgproc.CC_STAT_AREA];
+			double boxArea = (double) width * height;
+
+			double area = actualArea / frameArea;
+			double ratio = (double) width / height;
+			double density = VisionUtil.computeDensity(actualArea, boxArea);
+			if (passesFilters(config, area, ratio, density)) {
+				int candidate = candidates.add(componentStats[index + Imgproc.CC_STAT_LEFT] + offsetX,
+						componentStats[index + Imgproc.CC_STAT_TOP] + offsetY, width, height, area, density, ratio,
+						boxArea);
+				candidates.label[candidate] = i;
+				candidates.labelRegion[candidate] = region;
+			}
+		}
+	}
+
+	/**
+	 * Returns the outline of a candidate, tracing it from the threshold frame if
+	 * the backend did not find it. This is for anything that needs the outline
+	 * (like corner refinement), so that contours are only found for the blobs that
+	 * use them.
+	 * 
+	 * @param pipelineFrame
+	 * @param candidate     Index of the candidate in the candidate store
+	 * @return
+	 */
+	protected MatOfPoint traceContour(PipelineFrame pipelineFrame, int candidate) {
+		CandidateStore candidates = pipelineFrame.candidates;
+		if (candidates.contours[candidate] != null) {
+			return candidates.contours[candidate];
+		}
+
+		int x = candidates.x[candidate];
+		int y = candidates.y[candidate];
+		pipelineFrame.regionOffset.x = x;
+		pipelineFrame.regionOffset.y = y;
+
+		int width = candidates.width[candidate];
+		int height = candidates.height[candidate];
+		Mat source;
+		int label = candidates.label[candidate];
+		if (label > 0) {
+			// Only the pixels with the candidate's label are traced, since the box of a
+			// thin tilted blob can also hold part of a bigger neighbour
+			Mat labels = pipelineFrame.labels;
+			int labelX = x;
+			int labelY = y;
+			int region = candidates.labelRegion[candidate];
+			if (region >= 0) {
+				Rect rect = pipelineFrame.regions.get(region);
+				labels = pipelineFrame.regionLabels.get(region);
+				labelX -= rect.x;
+				labelY -= rect.y;
+			}
+
+			Mat labelRegion = labels.submat(labelY, labelY + height, labelX, labelX + width);
+			Core.compare(labelRegion, new Scalar(label), pipelineFrame.traceMask, Core.CMP_EQ);
+			labelRegion.release();
+			source = pipelineFrame.traceMask;
+		} else {
+			source = pipelineFrame.thresholdFrame.submat(y, y + height, x, x + width);
+		}
+
+		ArrayList<MatOfPoint> regionContours = pipelineFrame.regionContours;
+		regionContours.clear();
+		Imgproc.findContours(source, regionContours, pipelineFrame.hierarchy, Imgproc.RETR_EXTERNAL,
+				Imgproc.CHAIN_APPROX_SIMPLE, pipelineFrame.regionOffset);
+		if (label <= 0) {
+			source.release();
+		}
+
+		// A labeled blob is a single 8-connected outline. Without a label the largest
+		// outline in the box is used, which can be a clipped neighbour.
+		MatOfPoint contour = null;
+		double contourArea = -1;
+		for (int i = 0; i < regionContours.size(); i++) {
+			double area = Imgproc.contourArea(regionContours.get(i));
+			if (area > contourArea) {
+				contour = regionContours.get(i);
+				contourArea = area;
+			}
+		}
+
+		// They are released with the rest of the contours
+		for (int i = 0; i < regionContours.size(); i++) {
+			pipelineFrame.contours.add(regionContours.get(i));
+		}
+		candidates.contours[candidate] = contour;
+		return contour;
+	}
+
+	/**
+	 * Returns the angle of the long side of a candidate from horizontal in degrees
+	 * (counterclockwise from -90 to 90). It is measured with a rotated rectangle
+	 * the first time it is needed.
+	 * 
+	 * @param pipelineFrame
+	 * @param candidate     Index of the candidate in the candidate store
+	 * @return
+	 */
+	protected double getTilt(PipelineFrame pipelineFrame, int candidate) {
+		CandidateStore candidates = pipelineFrame.candidates;
+		if (!Double.isNaN(candidates.tilt[candidate])) {
+			return candidates.tilt[candidate];
+		}
+
+		MatOfPoint contour = traceContour(pipelineFrame, candidate);
+		if (contour == null) {
+			candidates.tilt[candidate] = 0;
+			return 0;
+		}
+
+		contour.convertTo(pipelineFrame.tiltPoints, CvType.CV_32F);
+		RotatedRect rect = Imgproc.minAreaRect(pipelineFrame.tiltPoints);
+
+		// Direction of the long side (the y axis of the image points down)
+		double radians = Math.toRadians(rect.angle);
+		double dx = Math.cos(radians);
+		double dy = Math.sin(radians);
+		if (rect.size.width < rect.size.height) {
+			double temp = dx;
+			dx = -dy;
+			dy = temp;
+		}
+
+		double angle = Math.toDegrees(Math.atan2(-dy, dx));
+		if (angle > 90) {
+			angle -= 180;
+		} else if (angle <= -90) {
+			angle += 180;
+		}
+
+		candidates.tilt[candidate] = angle;
+		return angle;
+	}
+
+	/**
+	 * Copies the best candidates (or pairs) into the target list of the vision
+	 * data
+	 * 
+	 * @param pipelineFrame
+	 * @param candidates    Store that selectTop was last called on
+	 * @param count         Number of candidates from the last selectTop to add
+	 * @param scoreScale    Multiplied by the score of each candidate
+	 * @param angles        Angle table or null if there is no calibration
+	 */
+	private void addTargets(PipelineFrame pipelineFrame, CandidateStore candidates, int count, double scoreScale,
+			AngleTable angles) {
+		VisionData visionData = pipelineFrame.visionData;
+		Mat frame = pipelineFrame.input;
+
+		for (int i = 0; i < count; i++) {
+			int index = candidates.getTop(i);
+			VisionTarget target = visionData.targets[i];
+
+			int x = candidates.x[index];
+			int y = candidates.y[index];
+			int width = candidates.width[index];
+			int height = candidates.height[index];
+
+			target.score = candidates.score[index] * scoreScale;
+			target.x = 2 * (x + width / 2.0 - frame.width() / 2.0) / frame.width();
+			target.y = 2 * -(y + height / 2.0 - frame.height() / 2.0) / frame.height();
+			target.width = (double) width / frame.width();
+			target.height = (double) height / frame.height();
+			target.area = candidates.area[index];
+			target.boxX = x;
+			target.boxY = y;
+			target.boxWidth = width;
+			target.boxHeight = height;
+
+			if (angles != null) {
+				target.yaw = angles.getYaw(x + width / 2.0, y + height / 2.0);
+				target.pitch = angles.getPitch(x + width / 2.0, y + height / 2.0);
+			} else {
+				target.yaw = 0;
+				target.pitch = 0;
+			}
+		}
+
+		visionData.targetCount = count;
+	}
+
+	/**
+	 * Finds and filters the contours and computes the target info
+	 * 
+	 * @param pipelineFrame
+	 */
+	protected void detect(PipelineFrame pipelineFrame) {
+		PipelineConfig config = pipelineFrame.config;
+		if (config.pipelineMode == PipelineMode.DRIVER) {
+			return;
+		}
+
+		Mat frame = pipelineFrame.input;
+		VisionData visionData = pipelineFrame.visionData;
+		ArrayList<MatOfPoint> contours = pipelineFrame.contours;
+		CandidateStore candidates = pipelineFrame.candidates;
+
+		// Find the blobs and keep the ones that pass the filters
+		long time = System.nanoTime();
+		releaseContours(contours);
+		candidates.clear();
+
+		long extractionNanos;
+		if (config.blobBackend == BlobBackend.CONNECTED_COMPONENTS) {
+			extractionNanos = findComponents(pipelineFrame);
+		} else {
+			extractionNanos = findContours(pipelineFrame);
+		}
+		contoursTime.record(extractionNanos);
+
+		double frameArea = (double) (frame.width() * frame.height());
 
-					Rect rect2 = contoursWithAreas.get(1).rect;
+		// Only the best blobs (or pairs) are used, so they are picked without sorting
+		int maxTargets = Math.max(0, Math.min(config.maxTargets, VisionData.MAX_TARGETS));
+		AngleTable angles = getAngleTable(frame);
+		int selected;
+		if (config.targetMode == TargetMode.SINGLE) {
+			selected = candidates.selectTop(Math.max(1, maxTargets));
+			addTargets(pipelineFrame, candidates, Math.min(selected, maxTargets), 1 / frameArea, angles);
+		} else {
+			PairingEngine pairing = pipelineFrame.pairing;
+			pairing.findPairs(this, pipelineFrame);
+			selected = pairing.pairs.selectTop(Math.max(1, maxTargets));
+			addTargets(pipelineFrame, pairing.pairs, Math.min(selected, maxTargets), 1 / frameArea, angles);
+		}
 
-					if (pipelineConfig.targetMode == TargetMode.DUAL_HORIZONTAL) {
-						// Properly order the targets
-						if (rect2.x < rect1.x) {
-							Rect temp = rect1;
-							rect1 = rect2;
-							rect2 = temp;
-						}
+		if (selected > 0) {
+			Rect rect1 = pipelineFrame.targetRect;
+			if (config.targetMode == TargetMode.SINGLE) {
+				candidates.getRect(candidates.getTop(0), rect1);
+				pipelineFrame.hasTargetRect = true;
+			}
 
-						upperLeft.x = rect1.x;
-						upperLeft.y = rect1.y;
+			if (config.targetMode == TargetMode.DUAL_HORIZONTAL || config.targetMode == TargetMode.DUAL_VERTICAL) {
+				visionData.hasTarget = true;
 
-						upperRight.x = rect2.x + rect2.width;
-						upperRight.y = rect2.y;
+				// The best pair
+				PairingEngine pairing = pipelineFrame.pairing;
+				int pair = pairing.pairs.getTop(0);
+				candidates.getRect(pairing.first[pair], rect1);
+				Rect rect2 = pipelineFrame.secondRect;
+				candidates.getRect(pairing.second[pair], rect2);
 
-						lowerLeft.x = rect1.x;
-						lowerLeft.y = rect1.y + rect1.height;
+				Point upperLeft = pipelineFrame.upperLeft;
+				Point upperRight = pipelineFrame.upperRight;
+				Point lowerLeft = pipelineFrame.lowerLeft;
+				Point lowerRight = pipelineFrame.lowerRight;
 
-						lowerRight.x = rect2.x + rect2.width;
-						lowerRight.y = rect2.y + rect2.height;
-					} else {
-						// Properly order the targets
-						if (rect2.y < rect1.y) {
-							Rect temp = rect1;
-							rect1 = rect2;
-							rect2 = temp;
-						}
+				if (config.targetMode == TargetMode.DUAL_HORIZONTAL) {
+					// Properly order the targets
+					if (rect2.x < rect1.x) {
+						Rect temp = rect1;
+						rect1 = rect2;
+						rect2 = temp;
+					}
 
-						upperLeft.x = rect1.x;
-						upperLeft.y = rect1.y;
+					upperLeft.x = rect1.x;
+					upperLeft.y = rect1.y;
 
-						upperRight.x = rect1.x + rect1.width;
-						upperRight.y = rect1.y;
+					upperRight.x = rect2.x + rect2.width;
+					upperRight.y = rect2.y;
 
-						lowerLeft.x = rect2.x;
-						lowerLeft.y = rect2.y + rect2.height;
+					lowerLeft.x = rect1.x;
+					lowerLeft.y = rect1.y + rect1.height;
 
-						lowerRight.x = rect2.x + rect2.width;
-						lowerRight.y = rect2.y + rect2.height;
+					lowerRight.x = rect2.x + rect2.width;
+					lowerRight.y = rect2.y + rect2.height;
+				} else {
+					// Properly order the targets
+					if (rect2.y < rect1.y) {
+						Rect temp = rect1;
+						rect1 = rect2;
+						rect2 = temp;
 					}
 
-					VisionUtil.drawQuadrilateral(outputFrame, GREEN, 3, upperLeft, upperRight, lowerLeft, lowerRight);
+					upperLeft.x = rect1.x;
+					upperLeft.y = rect1.y;
+
+					upperRight.x = rect1.x + rect1.width;
+					upperRight.y = rect1.y;
 
-					visionData.x = 2 * (((((upperLeft.x + lowerLeft.x) / 2) + ((upperRight.x + lowerRight.x) / 2)) / 2)
-							- frame.width() / 2.0) / frame.width();
-					visionData.y = 2 * -(((((upperLeft.y + lowerLeft.y) / 2) + ((upperRight.y + lowerRight.y) / 2)) / 2)
-							- frame.height() / 2.0) / frame.height();
+					lowerLeft.x = rect2.x;
+					lowerLeft.y = rect2.y + rect2.height;
 
-					visionData.targetWidth = VisionUtil.computeQuadrilateralWidth(upperLeft, upperRight, lowerLeft,
-							lowerRight) / frameArea;
-					visionData.targetHeight = VisionUtil.computeQuadrilateralHeight(upperLeft, upperRight, lowerLeft,
-							lowerRight) / frameArea;
-					visionData.targetArea = VisionUtil.computeQuadrilateralArea(upperLeft, upperRight, lowerLeft,
-							lowerRight) / frameArea;
-				} else if (pipelineConfig.targetMode == TargetMode.SINGLE) {
-					visionData.hasTarget = true;
+					lowerRight.x = rect2.x + rect2.width;
+					lowerRight.y = rect2.y + rect2.height;
+				}
+
+				pipelineFrame.hasQuadrilateral = true;
+
+				double centerX = (((upperLeft.x + lowerLeft.x) / 2) + ((upperRight.x + lowerRight.x) / 2)) / 2;
+				double centerY = (((upperLeft.y + lowerLeft.y) / 2) + ((upperRight.y + lowerRight.y) / 2)) / 2;
+				visionData.x = 2 * (centerX - frame.width() / 2.0) / frame.width();
+				visionData.y = 2 * -(centerY - frame.height() / 2.0) / frame.height();
+				if (angles != null) {
+					visionData.yaw = angles.getYaw(centerX, centerY);
+					visionData.pitch = angles.getPitch(centerX, centerY);
+				}
+
+				visionData.targetWidth = VisionUtil.computeQuadrilateralWidth(upperLeft, upperRight, lowerLeft,
+						lowerRight) / frameArea;
+				visionData.targetHeight = VisionUtil.computeQuadrilateralHeight(upperLeft, upperRight, lowerLeft,
+						lowerRight) / frameArea;
+				visionData.targetArea = VisionUtil.computeQuadrilateralArea(upperLeft, upperRight, lowerLeft,
+						lowerRight) / frameArea;
 
-					visionData.x = 2 * (rect1.x + rect1.width / 2.0 - frame.width() / 2.0) / frame.width();
-					visionData.y = 2 * -(rect1.y + rect1.height / 2.0 - frame.height() / 2.0) / frame.height();
+				double left = Math.min(rect1.x, rect2.x);
+				double top = Math.min(rect1.y, rect2.y);
+				track(left, top, Math.max(rect1.x + rect1.width, rect2.x + rect2.width) - left,
+						Math.max(rect1.y + rect1.height, rect2.y + rect2.height) - top);
+			} else if (config.targetMode == TargetMode.SINGLE) {
+				visionData.hasTarget = true;
 
-					visionData.targetWidth = (double) (rect1.width) / frame.width();
-					visionData.targetHeight = (double) (rect1.height) / frame.height();
-					visionData.targetArea = ((double) rect1.width * rect1.height) / frameArea;
+				visionData.x = 2 * (rect1.x + rect1.width / 2.0 - frame.width() / 2.0) / frame.width();
+				visionData.y = 2 * -(rect1.y + rect1.height / 2.0 - frame.height() / 2.0) / frame.height();
+				if (angles != null) {
+					visionData.yaw = angles.getYaw(rect1.x + rect1.width / 2.0, rect1.y + rect1.height / 2.0);
+					visionData.pitch = angles.getPitch(rect1.x + rect1.width / 2.0, rect1.y + rect1.height / 2.0);
 				}
+
+				visionData.targetWidth = (double) (rect1.width) / frame.width();
+				visionData.targetHeight = (double) (rect1.height) / frame.height();
+				visionData.targetArea = ((double) rect1.width * rect1.height) / frameArea;
+
+				track(rect1.x, rect1.y, rect1.width, rect1.height);
 			}
+		}
 
-			return outputFrame;
+		// Search the whole frame after a miss
+		if (!visionData.hasTarget) {
+			locked = false;
 		}
+
+		filteringTime.record(System.nanoTime() - time - extractionNanos);
 	}
 
 	/**
-	 * Releases all memory being used by the pipeline
+	 * Draws the target on the thresholded frame
+	 * 
+	 * @param pipelineFrame
 	 */
-	public void release() {
-		thresholdFrame.release();
-		hierarchy.release();
-		outputFrame.release();
+	protected void annotate(PipelineFrame pipelineFrame) {
+		if (pipelineFrame.config.pipelineMode == PipelineMode.DRIVER || !pipelineFrame.annotate) {
+			return;
+		}
+
+		long time = System.nanoTime();
+
+		Mat outputFrame = pipelineFrame.outputFrame;
+		Imgproc.cvtColor(pipelineFrame.thresholdFrame, outputFrame, Imgproc.COLOR_GRAY2RGB);
+
+		if (pipelineFrame.usingRegions) {
+			for (int i = 0; i < pipelineFrame.regionCount; i++) {
+				Imgproc.rectangle(outputFrame, pipelineFrame.regions.get(i), BLUE, 1);
+			}
+		}
+
+		if (pipelineFrame.hasTargetRect) {
+			Imgproc.rectangle(outputFrame, pipelineFrame.targetRect, GREEN, 3);
+		}
+
+		if (pipelineFrame.hasQuadrilateral) {
+			VisionUtil.drawQuadrilateral(outputFrame, GREEN, 3, pipelineFrame.upperLeft, pipelineFrame.upperRight,
+					pipelineFrame.lowerLeft, pipelineFrame.lowerRight);
+		}
+
+		annotateTime.recordSince(time);
 	}
 
-	public ConfigurablePipeline(PipelineConfig pipelineConfig) {
-		setPipelineConfig(pipelineConfig);
+	/**
+	 * Processes a frame
+	 */
+	public Mat process(Mat frame, double fps) {
+		return process(frame, fps, null);
+	}
+
+	/**
+	 * Processes a frame with an hsv copy of it that was already converted
+	 * 
+	 * @param frame
+	 * @param fps
+	 * @param hsvFrame The whole frame in hsv or null to convert it here
+	 * @return
+	 */
+	protected Mat process(Mat frame, double fps, Mat hsvFrame) {
+		synchronized (this) {
+			begin(pipelineFrame, frame, fps, false);
+			pipelineFrame.sharedHSVFrame = hsvFrame;
+
+			threshold(pipelineFrame);
+			detect(pipelineFrame);
+			annotate(pipelineFrame);
 
-		visionData = new VisionData();
+			return pipelineFrame.getDisplayFrame();
+		}
+	}
 
-		hierarchy = new Mat();
-		thresholdFrame = new Mat();
+	/**
+	 * Releases all memory being used by the pipeline
+	 */
+	public void release() {
+		synchronized (this) {
+			if (lutBuilder != null) {
+				lutBuilder.release();
+				lutBuilder = null;
+			}
+		}
 
-		contours = new ArrayList<MatOfPoint>();
-		contoursWithAreas = new ArrayList<ContourWithArea>();
+		pipelineFrame.lut = null;
+		pipelineFrame.release();
+	}
 
-		outputFrame = new Mat();
+	public ConfigurablePipeline(PipelineConfig pipelineConfig) {
+		setPipelineConfig(pipelineConfig);
+		setMetrics(new MetricsRegistry("pipeline"));
 
-		upperLeft = new Point();
-		upperRight = new Point();
-		lowerLeft = new Point();
-		lowerRight = new Point();
+		pipelineFrame = new PipelineFrame();
 	}
 }
@@ -23,6 +23,7 @@
 package org.aluminati3555.aluminativision.pipeline;
 
 import org.aluminati3555.aluminativision.net.VisionData;
+import org.aluminati3555.aluminativision.util.VisionUtil;
 import org.opencv.core.Mat;
 
 /**
@@ -32,8 +33,72 @@ import org.opencv.core.Mat;
  */
 public interface IVisionPipeline {
 	public Mat process(Mat frame, double fps);
+
+	/**
+	 * Processes a frame and stamps the output with the frame's sequence number, the
+	 * time the frame was captured and how long it took to process. Pipelines that
+	 * return results for older frames override this so that the output matches
+	 * its frame.
+	 * 
+	 * @param frame
+	 * @param fps
+	 * @param timestamp
+	 * @param sequence
+	 * @return
+	 */
+	public default Mat process(Mat frame, double fps, double timestamp, long sequence) {
+		double startTime = VisionUtil.getTime();
+		Mat outputFrame = process(frame, fps);
+
+		VisionData output = getOutput();
+		output.sequence = sequence;
+		output.timestamp = timestamp;
+		output.processingLatency = VisionUtil.getTime() - startTime;
+
+		return outputFrame;
+	}
 	
 	public VisionData getOutput();
+
+	/**
+	 * Returns the number of outputs that are sent for each frame. Pipelines that
+	 * run several pipelines on one frame override this.
+	 * 
+	 * @return
+	 */
+	public default int getOutputCount() {
+		return 1;
+	}
+
+	/**
+	 * Returns one of the outputs for the last frame
+	 * 
+	 * @param index
+	 * @return
+	 */
+	public default VisionData getOutput(int index) {
+		return getOutput();
+	}
+
+	/**
+	 * Returns the thresholded frame for the last output. It belongs to the
+	 * pipeline and changes with the next frame.
+	 * 
+	 * @return The frame or null if the pipeline does not threshold
+	 */
+	public default Mat getThresholdFrame() {
+		return null;
+	}
+
+	/**
+	 * Sets whether the targets are drawn on the output frame. Nothing needs the
+	 * drawing when nobody is watching it.
+	 * 
+	 * @param annotating
+	 */
+	public default void setAnnotating(boolean annotating) {
+
+	}
 	
 	public void release();
 }
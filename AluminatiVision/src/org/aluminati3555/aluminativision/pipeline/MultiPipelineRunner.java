@@ -0,0 +1,330 @@
+/**
+ * Copyright (c) 2019 Team 3555
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.aluminati3555.aluminativision.pipeline;
+
+import org.aluminati3555.aluminativision.metrics.LatencyHistogram;
+import org.aluminati3555.aluminativision.metrics.MetricsRegistry;
+import org.aluminati3555.aluminativision.net.VisionData;
+import org.aluminati3555.aluminativision.pipeline.PipelineConfig.PipelineMode;
+import org.aluminati3555.aluminativision.util.SPSCQueue;
+import org.aluminati3555.aluminativision.util.VisionUtil;
+import org.opencv.core.CvException;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Runs several pipelines on each frame from one camera, for example one for the
+ * goal and one for game pieces. When more than one of them converts the whole
+ * frame to hsv, it is converted once and shared. The pipelines are split
+ * between the calling thread and worker threads so that they run in parallel
+ * when there are free cores. Each output is tagged with the index of its
+ * pipeline, and the stream shows the first pipeline.
+ * 
+ * @author Caleb Heydon
+ */
+public class MultiPipelineRunner implements IVisionPipeline {
+	private static final long WAIT_TIMEOUT = 100000000;
+
+	private ConfigurablePipeline[] pipelines;
+	private Mat[] outputFrames;
+	private String name;
+
+	// Pipelines are given to the threads in turn (thread 0 is the caller)
+	private int threadCount;
+	private Worker[] workers;
+
+	private Mat hsvFrame;
+	private volatile long sharedFrames;
+
+	// The frame that the workers are working on
+	private Mat frame;
+	private Mat sharedHSVFrame;
+	private double fps;
+	private double timestamp;
+	private long sequence;
+	private double startTime;
+
+	private LatencyHistogram colorConvertTime;
+
+	private volatile boolean running;
+
+	/**
+	 * Returns the pipelines
+	 * 
+	 * @return
+	 */
+	public ConfigurablePipeline[] getPipelines() {
+		return pipelines.clone();
+	}
+
+	/**
+	 * Returns the number of frames that were converted to hsv once for several
+	 * pipelines
+	 * 
+	 * @return
+	 */
+	public long getSharedFrames() {
+		return sharedFrames;
+	}
+
+	/**
+	 * Returns the output of the first pipeline
+	 */
+	@Override
+	public VisionData getOutput() {
+		return pipelines[0].getOutput();
+	}
+
+	/**
+	 * Returns the number of pipelines
+	 */
+	@Override
+	public int getOutputCount() {
+		return pipelines.length;
+	}
+
+	/**
+	 * Returns the output of a pipeline
+	 */
+	@Override
+	public VisionData getOutput(int index) {
+		return pipelines[index].getOutput();
+	}
+
+	/**
+	 * Returns the thresholded frame of the first pipeline
+	 */
+	@Override
+	public Mat getThresholdFrame() {
+		return pipelines[0].getThresholdFrame();
+	}
+
+	/**
+	 * Sets whether the first pipeline draws its targets (the others are never
+	 * shown)
+	 */
+	@Override
+	public void setAnnotating(boolean annotating) {
+		pipelines[0].setAnnotating(annotating);
+	}
+
+	/**
+	 * Sets where the shared color conversion is recorded
+	 * 
+	 * @param metrics
+	 */
+	public void setMetrics(MetricsRegistry metrics) {
+		colorConvertTime = metrics.getHistogram(MetricsRegistry.COLOR_CONVERT);
+	}
+
+	/**
+	 * Starts the worker threads. They are started by the first frame so that they
+	 * inherit the priority of the vision loop.
+	 */
+	private void start() {
+		running = true;
+
+		for (int i = 0; i < workers.length; i++) {
+			workers[i] = new Worker(i + 1);
+			workers[i].setName(name + "-" + (i + 1));
+			workers[i].setPriority(Thread.currentThread().getPriority());
+			workers[i].start();
+		}
+	}
+
+	/**
+	 * Returns true if a pipeline would convert the whole frame to hsv itself
+	 * 
+	 * @param pipeline
+	 * @param frame
+	 * @return
+	 */
+	private static boolean convertsFrame(ConfigurablePipeline pipeline, Mat frame) {
+		PipelineConfig config = pipeline.getPipelineConfig();
+		return config.pipelineMode == PipelineMode.PROCESSING && !config.lutEnabled && !config.roiEnabled
+				&& config.pyramidLevels == 0 && pipeline.getInput(frame) == frame;
+	}
+
+	/**
+	 * Runs the pipelines that belong to a thread on the current frame
+	 * 
+	 * @param thread
+	 */
+	private void runPipelines(int thread) {
+		for (int i = thread; i < pipelines.length; i += threadCount) {
+			ConfigurablePipeline pipeline = pipelines[i];
+
+			// The shared frame is only for pipelines that read the camera frame
+			Mat hsv = (pipeline.getInput(frame) == frame) ? sharedHSVFrame : null;
+			try {
+				outputFrames[i] = pipeline.process(frame, fps, hsv);
+			} catch (CvException e) {
+				System.err.println("Error: Unable to process frame in pipeline " + i);
+				e.printStackTrace();
+				outputFrames[i] = frame;
+			}
+
+			VisionData output = pipeline.getOutput();
+			output.pipeline = i;
+			output.sequence = sequence;
+			output.timestamp = timestamp;
+			output.processingLatency = VisionUtil.getTime() - startTime;
+		}
+	}
+
+	/**
+	 * Processes a frame with every pipeline
+	 */
+	@Override
+	public Mat process(Mat frame, double fps) {
+		return process(frame, fps, VisionUtil.getTime(), 0);
+	}
+
+	/**
+	 * Processes a frame with every pipeline and returns the frame from the first
+	 * one
+	 */
+	@Override
+	public Mat process(Mat frame, double fps, double timestamp, long sequence) {
+		if (!running) {
+			start();
+		}
+
+		this.frame = frame;
+		this.fps = fps;
+		this.timestamp = timestamp;
+		this.sequence = sequence;
+		startTime = VisionUtil.getTime();
+
+		// Convert once if more than one pipeline needs the whole frame in hsv
+		int converting = 0;
+		for (int i = 0; i < pipelines.length; i++) {
+			if (convertsFrame(pipelines[i], frame)) {
+				converting++;
+			}
+		}
+
+		sharedHSVFrame = null;
+		if (converting > 1) {
+			long time = System.nanoTime();
+			Imgproc.cvtColor(frame, hsvFrame, Imgproc.COLOR_BGR2HSV);
+			colorConvertTime.recordSince(time);
+
+			sharedHSVFrame = hsvFrame;
+			sharedFrames++;
+		}
+
+		// The queues publish the fields above to the workers
+		for (int i = 0; i < workers.length; i++) {
+			workers[i].input.put(frame);
+		}
+		runPipelines(0);
+		for (int i = 0; i < workers.length; i++) {
+			while (workers[i].output.take(WAIT_TIMEOUT) == null) {
+				if (!running) {
+					return frame;
+				}
+			}
+		}
+
+		return outputFrames[0];
+	}
+
+	/**
+	 * Stops the worker threads and releases all memory being used by the
+	 * pipelines
+	 */
+	@Override
+	public void release() {
+		running = false;
+		for (int i = 0; i < workers.length; i++) {
+			if (workers[i] == null) {
+				continue;
+			}
+
+			try {
+				workers[i].join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		for (int i = 0; i < pipelines.length; i++) {
+			pipelines[i].release();
+		}
+		hsvFrame.release();
+	}
+
+	/**
+	 * Creates a runner for several pipelines
+	 * 
+	 * @param pipelines
+	 * @param threads   Most threads to run the pipelines on (including the
+	 *                  caller) or 0 to use the free cores
+	 * @param name      Prefix for the names of the worker threads
+	 */
+	public MultiPipelineRunner(ConfigurablePipeline[] pipelines, int threads, String name) {
+		this.pipelines = pipelines.clone();
+		this.name = name;
+		outputFrames = new Mat[pipelines.length];
+		for (int i = 1; i < pipelines.length; i++) {
+			pipelines[i].setAnnotating(false);
+		}
+
+		// One core is left for the camera and the stream
+		if (threads <= 0) {
+			threads = Runtime.getRuntime().availableProcessors() - 1;
+		}
+		threadCount = Math.max(1, Math.min(threads, pipelines.length));
+		workers = new Worker[threadCount - 1];
+
+		hsvFrame = new Mat();
+
+		setMetrics(new MetricsRegistry("pipeline"));
+	}
+
+	private class Worker extends Thread {
+		private int index;
+		private SPSCQueue<Mat> input;
+		private SPSCQueue<Mat> output;
+
+		@Override
+		public void run() {
+			while (running) {
+				Mat frame = input.take(WAIT_TIMEOUT);
+				if (frame == null) {
+					continue;
+				}
+
+				runPipelines(index);
+				output.put(frame);
+			}
+		}
+
+		public Worker(int index) {
+			this.index = index;
+			this.input = new SPSCQueue<Mat>(1);
+			this.output = new SPSCQueue<Mat>(1);
+		}
+	}
+}
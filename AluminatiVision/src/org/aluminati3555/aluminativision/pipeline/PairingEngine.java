@@ -0,0 +1,223 @@
+/**
+ * Copyright (c) 2019 Team 3555
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.aluminati3555.aluminativision.pipeline;
+
+import java.util.Arrays;
+
+import org.aluminati3555.aluminativision.pipeline.PipelineConfig.TargetMode;
+
+/**
+ * Finds the pairs of candidates that look like one dual target. Candidates are
+ * sorted along the pair direction, and each one is only paired with the
+ * candidates after it that are close enough to pass the spacing limit, so a
+ * frame with many blobs does not check every pair. Every valid pair is kept
+ * (in a candidate store of its own). The score of a pair is the sum of the
+ * scores of its two candidates multiplied by how well it matches the expected
+ * shape (from 0 to 1), so small pairs of noise do not beat the real target.
+ * 
+ * @author Caleb Heydon
+ */
+public class PairingEngine {
+	// Valid pairs with the bounding box of both targets and the total area
+	public CandidateStore pairs;
+
+	// Candidates in each pair (left then right or top then bottom)
+	public int[] first;
+	public int[] second;
+
+	// Candidates sorted by center (the doubled center is in the high bits and the
+	// index in the low bits so that a primitive sort can be used)
+	private long[] order;
+
+	// Center, center across the pair direction and size of the sorted candidates
+	private double[] center;
+	private double[] cross;
+	private double[] extent;
+
+	/**
+	 * Returns the tilt of a candidate relative to the pair direction (positive
+	 * when the end that is farther along the pair leans toward the pair)
+	 * 
+	 * @param pipeline
+	 * @param pipelineFrame
+	 * @param candidate
+	 * @param vertical
+	 * @return
+	 */
+	private static double getTilt(ConfigurablePipeline pipeline, PipelineFrame pipelineFrame, int candidate,
+			boolean vertical) {
+		double angle = pipeline.getTilt(pipelineFrame, candidate);
+		if (vertical) {
+			return angle;
+		}
+
+		// Lean from vertical (positive when the top leans right)
+		return (angle > 0) ? 90 - angle : -90 - angle;
+	}
+
+	/**
+	 * Scores every pair of candidates that could be one target
+	 * 
+	 * @param pipeline      Used to measure the tilt of candidates
+	 * @param pipelineFrame
+	 * @return The number of valid pairs
+	 */
+	public int findPairs(ConfigurablePipeline pipeline, PipelineFrame pipelineFrame) {
+		PipelineConfig config = pipelineFrame.config;
+		CandidateStore candidates = pipelineFrame.candidates;
+		boolean vertical = config.targetMode == TargetMode.DUAL_VERTICAL;
+		boolean useTilt = config.pairMaxTiltError > 0;
+
+		pairs.clear();
+
+		// Sort along the pair direction
+		int count = candidates.count;
+		if (order.length < count) {
+			int length = Math.max(count, order.length * 2);
+			order = new long[length];
+			center = new double[length];
+			cross = new double[length];
+			extent = new double[length];
+		}
+
+		for (int i = 0; i < count; i++) {
+			long doubleCenter = vertical ? 2L * candidates.y[i] + candidates.height[i]
+					: 2L * candidates.x[i] + candidates.width[i];
+			order[i] = (doubleCenter << 32) | i;
+		}
+		Arrays.sort(order, 0, count);
+
+		// Copy what the neighbor checks need into sorted order so that they read
+		// memory in order
+		double maxExtent = 0;
+		for (int i = 0; i < count; i++) {
+			int index = (int) order[i];
+			center[i] = (order[i] >>> 32) / 2.0;
+			if (vertical) {
+				cross[i] = candidates.x[index] + candidates.width[index] / 2.0;
+				extent[i] = candidates.width[index];
+			} else {
+				cross[i] = candidates.y[index] + candidates.height[index] / 2.0;
+				extent[i] = candidates.height[index];
+			}
+			maxExtent = Math.max(maxExtent, extent[i]);
+		}
+
+		double spacingMin = config.pairSpacingMin;
+		double spacingMax = config.pairSpacingMax;
+		double maxSizeDifference = config.pairMaxSizeDifference;
+		double maxMisalignment = config.pairMaxMisalignment;
+		double spacingRange = (spacingMax - spacingMin) / 2;
+		double spacingMiddle = spacingMin + spacingRange;
+
+		for (int i = 0; i < count; i++) {
+			double centerA = center[i];
+			double crossA = cross[i];
+			double extentA = extent[i];
+
+			// No candidate past this can be close enough
+			double reach = spacingMax * (extentA + maxExtent) / 2;
+
+			for (int j = i + 1; j < count && center[j] - centerA <= reach; j++) {
+				// Most neighbors are out of line, so that is checked first
+				double meanExtent = (extentA + extent[j]) / 2;
+				double offset = Math.abs(cross[j] - crossA);
+				if (offset > maxMisalignment * meanExtent) {
+					continue;
+				}
+
+				double distance = center[j] - centerA;
+				if (distance < spacingMin * meanExtent || distance > spacingMax * meanExtent) {
+					continue;
+				}
+
+				int a = (int) order[i];
+				int b = (int) order[j];
+				double sizeDifference = Math.abs(candidates.area[a] - candidates.area[b])
+						/ Math.max(candidates.area[a], candidates.area[b]);
+				if (sizeDifference > maxSizeDifference) {
+					continue;
+				}
+
+				// Each error is a fraction of its limit
+				double spacing = distance / meanExtent;
+				double error = ((spacingRange > 0) ? Math.abs(spacing - spacingMiddle) / spacingRange : 0)
+						+ ((maxSizeDifference > 0) ? sizeDifference / maxSizeDifference : 0)
+						+ ((maxMisalignment > 0) ? offset / meanExtent / maxMisalignment : 0);
+				int errors = 3;
+
+				// The tilt is only measured for pairs that pass everything else
+				if (useTilt) {
+					double tiltError = (Math.abs(getTilt(pipeline, pipelineFrame, a, vertical) - config.pairTilt)
+							+ Math.abs(getTilt(pipeline, pipelineFrame, b, vertical) + config.pairTilt)) / 2;
+					if (tiltError > config.pairMaxTiltError) {
+						continue;
+					}
+
+					error += tiltError / config.pairMaxTiltError;
+					errors++;
+				}
+
+				addPair(candidates, a, b, 1 - error / errors);
+			}
+		}
+
+		return pairs.count;
+	}
+
+	/**
+	 * Adds a valid pair
+	 * 
+	 * @param candidates
+	 * @param a          First candidate
+	 * @param b          Second candidate
+	 * @param quality    How well the pair matches from 0 to 1
+	 */
+	private void addPair(CandidateStore candidates, int a, int b, double quality) {
+		int x = Math.min(candidates.x[a], candidates.x[b]);
+		int y = Math.min(candidates.y[a], candidates.y[b]);
+		int width = Math.max(candidates.x[a] + candidates.width[a], candidates.x[b] + candidates.width[b]) - x;
+		int height = Math.max(candidates.y[a] + candidates.height[a], candidates.y[b] + candidates.height[b]) - y;
+
+		// Scored like single targets (by box area) so that the scores can be compared
+		int index = pairs.add(x, y, width, height, candidates.area[a] + candidates.area[b], 0,
+				(double) width / height, quality * (candidates.score[a] + candidates.score[b]));
+
+		if (first.length < pairs.getCapacity()) {
+			first = Arrays.copyOf(first, pairs.getCapacity());
+			second = Arrays.copyOf(second, pairs.getCapacity());
+		}
+		first[index] = a;
+		second[index] = b;
+	}
+
+	public PairingEngine() {
+		pairs = new CandidateStore();
+		first = new int[pairs.getCapacity()];
+		second = new int[pairs.getCapacity()];
+		order = new long[CandidateStore.DEFAULT_CAPACITY];
+		center = new double[order.length];
+		cross = new double[order.length];
+		extent = new double[order.length];
+	}
+}
@@ -22,12 +22,14 @@
 
 package org.aluminati3555.aluminativision.pipeline;
 
+import org.aluminati3555.aluminativision.net.VisionData;
+
 /**
  * Pipeline config class
  * 
  * @author Caleb Heydon
  */
-public class PipelineConfig {
+public class PipelineConfig implements Cloneable {
 	// Pipeline mode
 	public PipelineMode pipelineMode = PipelineMode.DRIVER;
 
@@ -54,10 +56,77 @@ public class PipelineConfig {
 	public double contourDensityMin = 0;
 	public double contourDensityMax = 1;
 
+	// Number of blobs that pass the filters to send as separate targets (up to
+	// VisionData.MAX_TARGETS, best first)
+	public int maxTargets = VisionData.MAX_TARGETS;
+
+	// Pairing for the dual target modes. Pairs are scored by the spacing of their
+	// centers (in target heights, or widths for vertical pairs), the difference in
+	// area (as a fraction of the larger target), how far the centers are out of
+	// line (in target heights or widths) and optionally the tilt of each target in
+	// degrees (the first target is expected to lean by pairTilt and the second by
+	// the opposite). Pairs past any limit are not valid. The tilt needs the
+	// outline of each target, so it is skipped when pairMaxTiltError is 0.
+	public double pairSpacingMin = 0;
+	public double pairSpacingMax = 8;
+	public double pairMaxSizeDifference = 0.75;
+	public double pairMaxMisalignment = 1;
+	public double pairTilt = 0;
+	public double pairMaxTiltError = 0;
+
+	// How blobs are found in the threshold frame. Connected components finds the
+	// area and bounding box of every blob in one call without finding contours,
+	// but its area does not include holes in the blob.
+	public BlobBackend blobBackend = BlobBackend.CONTOURS;
+
+	// Thresholds with a lookup table from BGR colors instead of converting to hsv.
+	// The table is built in the background when the thresholds change. 8 bits
+	// per channel is exact, and fewer bits round the colors to a smaller table.
+	public boolean lutEnabled = false;
+	public int lutBits = 8;
+
+	// Region of interest tracking. Once a target is found only a window around it
+	// is processed. The window is padded by a fraction of the target size, by the
+	// target's motion over a number of frames and by a minimum number of pixels.
+	// The whole frame is searched after a miss and every roiSearchInterval frames.
+	public boolean roiEnabled = false;
+	public double roiPadding = 0.5;
+	public double roiVelocityScale = 3;
+	public int roiMinimumPadding = 8;
+	public int roiSearchInterval = 30;
+
+	// Coarse to fine search. Searches without a region of interest first find
+	// candidates on a frame that is halved pyramidLevels times (0 is off). The
+	// contour filters are widened by pyramidTolerance (as a fraction) for the
+	// coarse pass since edges blur. Only the candidates (padded by pyramidPadding
+	// full resolution pixels) are processed at full resolution.
+	public int pyramidLevels = 0;
+	public double pyramidTolerance = 0.5;
+	public int pyramidPadding = 4;
+
+	public static final int MAX_PYRAMID_LEVELS = 3;
+
+	/**
+	 * Returns a copy of the config
+	 * 
+	 * @return
+	 */
+	public PipelineConfig copy() {
+		try {
+			return (PipelineConfig) clone();
+		} catch (CloneNotSupportedException e) {
+			throw new AssertionError(e);
+		}
+	}
+
 	public enum PipelineMode {
 		DRIVER, PROCESSING
 	}
 
+	public enum BlobBackend {
+		CONTOURS, CONNECTED_COMPONENTS
+	}
+
 	public enum TargetMode {
 		SINGLE, DUAL_HORIZONTAL, DUAL_VERTICAL
 	}
@@ -0,0 +1,197 @@
+/**
+ * Copyright (c) 2019 Team 3555
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.aluminati3555.aluminativision.pipeline;
+
+import java.util.ArrayList;
+
+import org.aluminati3555.aluminativision.net.VisionData;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+
+/**
+ * This class holds the working memory for one frame as it moves through the
+ * stages of a pipeline
+ * 
+ * @author Caleb Heydon
+ */
+public class PipelineFrame {
+	// Set when the frame enters the pipeline
+	public Mat input;
+	public Mat inputCopy;
+	public PipelineConfig config;
+	public Scalar minScalar;
+	public Scalar maxScalar;
+	public ThresholdLUT lut;
+	public double fps;
+	public double timestamp;
+	public double startTime;
+
+	// Hsv copy of the whole input that was converted once for several pipelines
+	// (null when the pipeline converts the frame itself)
+	public Mat sharedHSVFrame;
+
+	// Regions of the frame that are processed at full resolution when tracking a
+	// target or after a coarse search (the whole frame is used otherwise)
+	public boolean usingRegions;
+	public int regionCount;
+	public ArrayList<Rect> regions;
+	public Point regionOffset;
+	public ArrayList<MatOfPoint> regionContours;
+
+	// Downscaled frames for the coarse search
+	public Mat[] pyramidFrames;
+	public Size pyramidSize;
+	public Mat coarseHSVFrame;
+	public Mat coarseThresholdFrame;
+
+	// Pixel buffers for the threshold lookup table
+	public byte[] lutPixels;
+	public byte[] lutMask;
+
+	// Intermediate results (only the regions are valid when using regions)
+	public Mat hsvFrame;
+	public Mat thresholdFrame;
+	public Mat hierarchy;
+	public Mat labels;
+	public ArrayList<Mat> regionLabels;
+	public Mat traceMask;
+	public Mat stats;
+	public Mat centroids;
+	public int[] componentStats;
+	public ArrayList<MatOfPoint> contours;
+	public CandidateStore candidates;
+	public PairingEngine pairing;
+	public MatOfPoint2f tiltPoints;
+
+	// Target shape for drawing
+	public boolean hasTargetRect;
+	public Rect targetRect;
+	public Rect secondRect;
+	public boolean hasQuadrilateral;
+
+	// Whether the targets are drawn on the output frame
+	public boolean annotate;
+	public Point upperLeft;
+	public Point upperRight;
+	public Point lowerLeft;
+	public Point lowerRight;
+
+	// Results
+	public Mat outputFrame;
+	public VisionData visionData;
+
+	/**
+	 * Returns the frame that should be displayed for this frame
+	 * 
+	 * @return
+	 */
+	public Mat getDisplayFrame() {
+		return (config.pipelineMode == PipelineConfig.PipelineMode.DRIVER) ? input : outputFrame;
+	}
+
+	/**
+	 * Adds a region to process and returns it
+	 * 
+	 * @return
+	 */
+	public Rect addRegion() {
+		if (regionCount == regions.size()) {
+			regions.add(new Rect());
+		}
+
+		return regions.get(regionCount++);
+	}
+
+	/**
+	 * Releases all memory being used by the frame
+	 */
+	public void release() {
+		inputCopy.release();
+		for (int i = 0; i < pyramidFrames.length; i++) {
+			pyramidFrames[i].release();
+		}
+		coarseHSVFrame.release();
+		coarseThresholdFrame.release();
+		hsvFrame.release();
+		thresholdFrame.release();
+		hierarchy.release();
+		labels.release();
+		for (int i = 0; i < regionLabels.size(); i++) {
+			regionLabels.get(i).release();
+		}
+		traceMask.release();
+		stats.release();
+		centroids.release();
+		tiltPoints.release();
+		outputFrame.release();
+	}
+
+	public PipelineFrame() {
+		inputCopy = new Mat();
+
+		regions = new ArrayList<Rect>();
+		regionOffset = new Point();
+		regionContours = new ArrayList<MatOfPoint>();
+
+		pyramidFrames = new Mat[PipelineConfig.MAX_PYRAMID_LEVELS];
+		for (int i = 0; i < pyramidFrames.length; i++) {
+			pyramidFrames[i] = new Mat();
+		}
+		pyramidSize = new Size();
+		coarseHSVFrame = new Mat();
+		coarseThresholdFrame = new Mat();
+
+		lutPixels = new byte[0];
+		lutMask = new byte[0];
+
+		hsvFrame = new Mat();
+		thresholdFrame = new Mat();
+		hierarchy = new Mat();
+		labels = new Mat();
+		regionLabels = new ArrayList<Mat>();
+		traceMask = new Mat();
+		stats = new Mat();
+		centroids = new Mat();
+		componentStats = new int[0];
+		contours = new ArrayList<MatOfPoint>();
+		candidates = new CandidateStore();
+		pairing = new PairingEngine();
+		tiltPoints = new MatOfPoint2f();
+
+		targetRect = new Rect();
+		secondRect = new Rect();
+
+		upperLeft = new Point();
+		upperRight = new Point();
+		lowerLeft = new Point();
+		lowerRight = new Point();
+
+		outputFrame = new Mat();
+		visionData = new VisionData();
+	}
+}
@@ -0,0 +1,323 @@
+/**
+ * Copyright (c) 2019 Team 3555
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.aluminati3555.aluminativision.pipeline;
+
+import org.aluminati3555.aluminativision.net.VisionData;
+import org.aluminati3555.aluminativision.pipeline.PipelineConfig.PipelineMode;
+import org.aluminati3555.aluminativision.util.SPSCQueue;
+import org.aluminati3555.aluminativision.util.VisionUtil;
+import org.opencv.core.CvException;
+import org.opencv.core.Mat;
+
+/**
+ * Runs the stages of a ConfigurablePipeline on separate threads so that
+ * successive frames overlap. Frames move through bounded single producer single
+ * consumer queues and come out in the order they went in. Each call to process
+ * returns the result for the frame that was submitted STAGE_COUNT - 1 calls
+ * earlier.
+ * 
+ * @author Caleb Heydon
+ */
+public class StagedPipeline implements IVisionPipeline {
+	private static final String[] STAGE_NAMES = { "threshold", "detect", "annotate" };
+	private static final int STAGE_COUNT = STAGE_NAMES.length;
+
+	private static final long WAIT_TIMEOUT = 100000000;
+
+	private ConfigurablePipeline pipeline;
+	private String name;
+
+	private PipelineFrame[] frames;
+	private PipelineFrame[] freeFrames;
+	private int freeCount;
+
+	private SPSCQueue<PipelineFrame>[] queues;
+	private Stage[] stages;
+
+	private PipelineFrame currentFrame;
+	private VisionData emptyOutput;
+	private int inFlight;
+
+	private double lastReportTime;
+
+	private volatile boolean running;
+
+	/**
+	 * Returns the pipeline that does the work
+	 * 
+	 * @return
+	 */
+	public ConfigurablePipeline getPipeline() {
+		return pipeline;
+	}
+
+	/**
+	 * Returns the output of the frame that was last returned
+	 */
+	public VisionData getOutput() {
+		return (currentFrame == null) ? emptyOutput : currentFrame.visionData;
+	}
+
+	/**
+	 * Returns the thresholded frame that was last returned
+	 */
+	@Override
+	public Mat getThresholdFrame() {
+		if (currentFrame == null || currentFrame.config.pipelineMode == PipelineMode.DRIVER) {
+			return null;
+		}
+
+		return currentFrame.thresholdFrame;
+	}
+
+	/**
+	 * Sets whether the annotate stage draws the targets
+	 */
+	@Override
+	public void setAnnotating(boolean annotating) {
+		pipeline.setAnnotating(annotating);
+	}
+
+	/**
+	 * Returns the names of the stages
+	 * 
+	 * @return
+	 */
+	public static String[] getStageNames() {
+		return STAGE_NAMES.clone();
+	}
+
+	/**
+	 * Returns the total time a stage has spent working in seconds
+	 * 
+	 * @param stage
+	 * @return
+	 */
+	public double getStageBusyTime(int stage) {
+		return (stages[stage] == null) ? 0 : stages[stage].busyTime / 1000000000.0;
+	}
+
+	/**
+	 * Returns the number of frames waiting for a stage
+	 * 
+	 * @param stage
+	 * @return
+	 */
+	public int getStageQueueSize(int stage) {
+		return queues[stage].size();
+	}
+
+	/**
+	 * Returns the fraction of time each stage spent working since the last report
+	 * along with the number of frames waiting for it
+	 * 
+	 * @return
+	 */
+	public String report() {
+		if (!running) {
+			return "not started";
+		}
+
+		double time = VisionUtil.getTime();
+		double elapsed = time - lastReportTime;
+		lastReportTime = time;
+
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < STAGE_COUNT; i++) {
+			long busyTime = stages[i].busyTime;
+			double occupancy = (busyTime - stages[i].lastBusyTime) / 1000000000.0 / elapsed;
+			stages[i].lastBusyTime = busyTime;
+
+			if (i > 0) {
+				builder.append(", ");
+			}
+			builder.append(STAGE_NAMES[i]).append(' ').append(Math.round(occupancy * 100)).append("% (")
+					.append(queues[i].size()).append(" waiting)");
+		}
+
+		return builder.toString();
+	}
+
+	/**
+	 * Starts the stage threads. They are started by the first frame so that they
+	 * inherit the priority of the vision loop.
+	 */
+	private void start() {
+		running = true;
+		lastReportTime = VisionUtil.getTime();
+
+		for (int i = 0; i < STAGE_COUNT; i++) {
+			stages[i] = new Stage(i, queues[i], queues[i + 1]);
+			stages[i].setName(name + "-" + STAGE_NAMES[i]);
+			stages[i].setPriority(Thread.currentThread().getPriority());
+			stages[i].start();
+		}
+	}
+
+	/**
+	 * Processes a frame. The result is for an older frame.
+	 */
+	public Mat process(Mat frame, double fps) {
+		return process(frame, fps, VisionUtil.getTime(), 0);
+	}
+
+	/**
+	 * Submits a frame and returns the oldest finished frame. Until the stages are
+	 * full the camera frame is returned with an empty output.
+	 */
+	@Override
+	public Mat process(Mat frame, double fps, double timestamp, long sequence) {
+		if (!running) {
+			start();
+		}
+
+		// The frame from the last call is no longer being used by the caller
+		if (currentFrame != null) {
+			freeFrames[freeCount++] = currentFrame;
+			currentFrame = null;
+		}
+
+		PipelineFrame pipelineFrame = freeFrames[--freeCount];
+		pipeline.begin(pipelineFrame, frame, fps, true);
+		pipelineFrame.timestamp = timestamp;
+		pipelineFrame.startTime = VisionUtil.getTime();
+		pipelineFrame.visionData.timestamp = timestamp;
+		pipelineFrame.visionData.sequence = sequence;
+
+		queues[0].put(pipelineFrame);
+		inFlight++;
+
+		if (inFlight < STAGE_COUNT) {
+			emptyOutput.fps = fps;
+			emptyOutput.timestamp = timestamp;
+			emptyOutput.sequence = sequence;
+			return frame;
+		}
+
+		PipelineFrame finished;
+		while ((finished = queues[STAGE_COUNT].take(WAIT_TIMEOUT)) == null) {
+			if (!running) {
+				return frame;
+			}
+		}
+		inFlight--;
+
+		finished.visionData.processingLatency = VisionUtil.getTime() - finished.startTime;
+		currentFrame = finished;
+
+		return finished.getDisplayFrame();
+	}
+
+	/**
+	 * Stops the stage threads and releases all memory being used by the pipeline
+	 */
+	public void release() {
+		running = false;
+		for (int i = 0; i < STAGE_COUNT; i++) {
+			if (stages[i] == null) {
+				continue;
+			}
+
+			try {
+				stages[i].join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		for (int i = 0; i < frames.length; i++) {
+			frames[i].release();
+		}
+		pipeline.release();
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public StagedPipeline(ConfigurablePipeline pipeline, String name) {
+		this.pipeline = pipeline;
+		this.name = name;
+
+		// Every stage can hold a frame while the caller holds the last result
+		frames = new PipelineFrame[STAGE_COUNT + 1];
+		freeFrames = new PipelineFrame[frames.length];
+		for (int i = 0; i < frames.length; i++) {
+			frames[i] = new PipelineFrame();
+			freeFrames[i] = frames[i];
+		}
+		freeCount = frames.length;
+
+		queues = new SPSCQueue[STAGE_COUNT + 1];
+		for (int i = 0; i < queues.length; i++) {
+			queues[i] = new SPSCQueue<PipelineFrame>(frames.length);
+		}
+		stages = new Stage[STAGE_COUNT];
+
+		emptyOutput = new VisionData();
+	}
+
+	private class Stage extends Thread {
+		private int index;
+		private SPSCQueue<PipelineFrame> input;
+		private SPSCQueue<PipelineFrame> output;
+
+		private volatile long busyTime;
+		private long lastBusyTime;
+
+		@Override
+		public void run() {
+			while (running) {
+				PipelineFrame pipelineFrame = input.take(WAIT_TIMEOUT);
+				if (pipelineFrame == null) {
+					continue;
+				}
+
+				long startTime = System.nanoTime();
+				try {
+					switch (index) {
+					case 0:
+						pipeline.threshold(pipelineFrame);
+						break;
+					case 1:
+						pipeline.detect(pipelineFrame);
+						break;
+					default:
+						pipeline.annotate(pipelineFrame);
+						break;
+					}
+				} catch (CvException e) {
+					// Pass the frame on so that the order is kept
+					System.err.println("Error: Unable to process frame in " + getName());
+					e.printStackTrace();
+				}
+				busyTime += System.nanoTime() - startTime;
+
+				output.put(pipelineFrame);
+			}
+		}
+
+		public Stage(int index, SPSCQueue<PipelineFrame> input, SPSCQueue<PipelineFrame> output) {
+			this.index = index;
+			this.input = input;
+			this.output = output;
+		}
+	}
+}
@@ -34,8 +34,8 @@ public class TestPipeline extends ConfigurablePipeline {
 	private Mat testFrame;
 	
 	@Override
-	public Mat process(Mat frame, double fps) {
-		return super.process(testFrame, fps);
+	protected Mat getInput(Mat frame) {
+		return testFrame;
 	}
 	
 	@Override
@@ -0,0 +1,185 @@
+/**
+ * Copyright (c) 2019 Team 3555
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.aluminati3555.aluminativision.pipeline;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * A lookup table from BGR colors to the threshold mask so that a frame can be
+ * thresholded in one pass without converting it to hsv. With 8 bits per
+ * channel every color has a bit (a 2 MB table) and the result is exactly the
+ * same as cvtColor and inRange. With fewer bits the colors are rounded to a
+ * smaller cube with a byte per entry (256 KB for 6 bits, 32 KB for 5 bits).
+ * 
+ * @author Caleb Heydon
+ */
+public class ThresholdLUT {
+	public static final int MIN_BITS = 4;
+	public static final int MAX_BITS = 8;
+
+	private Scalar minScalar;
+	private Scalar maxScalar;
+	private int bits;
+
+	// Only one of these is used
+	private long[] bitTable;
+	private byte[] byteTable;
+
+	/**
+	 * Returns true if the table was built for these exact bounds (the pipeline
+	 * makes new scalars whenever the config changes)
+	 * 
+	 * @param minScalar
+	 * @param maxScalar
+	 * @return
+	 */
+	public boolean matches(Scalar minScalar, Scalar maxScalar) {
+		return this.minScalar == minScalar && this.maxScalar == maxScalar;
+	}
+
+	/**
+	 * Returns the number of bits per channel
+	 * 
+	 * @return
+	 */
+	public int getBits() {
+		return bits;
+	}
+
+	/**
+	 * Thresholds a BGR frame into a mask. The frame and mask can be submats.
+	 * 
+	 * @param frame
+	 * @param mask
+	 * @param pipelineFrame Holds the buffers for the pixels
+	 */
+	public void apply(Mat frame, Mat mask, PipelineFrame pipelineFrame) {
+		mask.create(frame.rows(), frame.cols(), CvType.CV_8UC1);
+
+		int total = (int) frame.total();
+		if (pipelineFrame.lutPixels.length < total * 3) {
+			pipelineFrame.lutPixels = new byte[total * 3];
+			pipelineFrame.lutMask = new byte[total];
+		}
+
+		byte[] pixels = pipelineFrame.lutPixels;
+		byte[] maskPixels = pipelineFrame.lutMask;
+		frame.get(0, 0, pixels);
+
+		if (bitTable != null) {
+			long[] table = bitTable;
+			for (int i = 0, j = 0; i < total; i++, j += 3) {
+				int index = ((pixels[j] & 0xff) << 16) | ((pixels[j + 1] & 0xff) << 8) | (pixels[j + 2] & 0xff);
+				maskPixels[i] = (byte) -((int) (table[index >>> 6] >>> index) & 1);
+			}
+		} else {
+			byte[] table = byteTable;
+			int shift = 8 - bits;
+			int greenShift = bits;
+			int blueShift = 2 * bits;
+			for (int i = 0, j = 0; i < total; i++, j += 3) {
+				int index = (((pixels[j] & 0xff) >>> shift) << blueShift)
+						| (((pixels[j + 1] & 0xff) >>> shift) << greenShift) | ((pixels[j + 2] & 0xff) >>> shift);
+				maskPixels[i] = table[index];
+			}
+		}
+
+		mask.put(0, 0, maskPixels);
+	}
+
+	/**
+	 * Builds a table for the hsv bounds. This is slow (about a tenth of a second
+	 * on a desktop for 8 bits), so it is meant to be run on a background thread.
+	 * Colors are converted with OpenCV so that the table matches cvtColor.
+	 * 
+	 * @param minScalar
+	 * @param maxScalar
+	 * @param bits      Bits per channel (4 to 8)
+	 * @return
+	 */
+	public static ThresholdLUT build(Scalar minScalar, Scalar maxScalar, int bits) {
+		bits = Math.max(MIN_BITS, Math.min(MAX_BITS, bits));
+
+		ThresholdLUT lut = new ThresholdLUT();
+		lut.minScalar = minScalar;
+		lut.maxScalar = maxScalar;
+		lut.bits = bits;
+
+		int levels = 1 << bits;
+		int shift = 8 - bits;
+		int half = (1 << shift) >> 1;
+		if (bits == MAX_BITS) {
+			lut.bitTable = new long[(1 << 24) >>> 6];
+		} else {
+			lut.byteTable = new byte[1 << (3 * bits)];
+		}
+
+		// One plane of blue at a time (the center of each rounded color is used)
+		int planeSize = levels * levels;
+		Mat colors = new Mat(1, planeSize, CvType.CV_8UC3);
+		Mat hsv = new Mat();
+		Mat mask = new Mat();
+		byte[] colorBytes = new byte[planeSize * 3];
+		byte[] maskBytes = new byte[planeSize];
+
+		for (int blue = 0; blue < levels; blue++) {
+			int k = 0;
+			for (int green = 0; green < levels; green++) {
+				for (int red = 0; red < levels; red++) {
+					colorBytes[k++] = (byte) ((blue << shift) + half);
+					colorBytes[k++] = (byte) ((green << shift) + half);
+					colorBytes[k++] = (byte) ((red << shift) + half);
+				}
+			}
+
+			colors.put(0, 0, colorBytes);
+			Imgproc.cvtColor(colors, hsv, Imgproc.COLOR_BGR2HSV);
+			Core.inRange(hsv, minScalar, maxScalar, mask);
+			mask.get(0, 0, maskBytes);
+
+			int base = blue * planeSize;
+			for (int i = 0; i < planeSize; i++) {
+				if (maskBytes[i] == 0) {
+					continue;
+				}
+
+				int index = base + i;
+				if (lut.bitTable != null) {
+					lut.bitTable[index >>> 6] |= 1L << index;
+				} else {
+					lut.byteTable[index] = (byte) 255;
+				}
+			}
+		}
+
+		colors.release();
+		hsv.release();
+		mask.release();
+
+		return lut;
+	}
+}
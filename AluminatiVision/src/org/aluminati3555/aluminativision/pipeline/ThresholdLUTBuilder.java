@@ -0,0 +1,129 @@
+/**
+ * Copyright (c) 2019 Team 3555
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.aluminati3555.aluminativision.pipeline;
+
+import org.opencv.core.CvException;
+import org.opencv.core.Scalar;
+
+/**
+ * This thread builds threshold lookup tables in the background so that
+ * changing the config never stalls the pipeline. Only the newest request is
+ * built.
+ * 
+ * @author Caleb Heydon
+ */
+public class ThresholdLUTBuilder extends Thread {
+	private volatile ThresholdLUT table;
+
+	private Scalar minScalar;
+	private Scalar maxScalar;
+	private int bits;
+	private boolean pending;
+	private boolean running;
+
+	/**
+	 * Returns the newest table that has been built or null if there is none
+	 * 
+	 * @return
+	 */
+	public ThresholdLUT getTable() {
+		return table;
+	}
+
+	/**
+	 * Asks for a table to be built for new bounds
+	 * 
+	 * @param minScalar
+	 * @param maxScalar
+	 * @param bits
+	 */
+	public synchronized void request(Scalar minScalar, Scalar maxScalar, int bits) {
+		this.minScalar = minScalar;
+		this.maxScalar = maxScalar;
+		this.bits = bits;
+		pending = true;
+
+		notifyAll();
+	}
+
+	/**
+	 * Stops the thread once the table it is building is done and drops the tables
+	 */
+	public void release() {
+		synchronized (this) {
+			running = false;
+			notifyAll();
+		}
+
+		try {
+			join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		table = null;
+	}
+
+	/**
+	 * The start of the builder thread
+	 */
+	@Override
+	public void run() {
+		while (true) {
+			Scalar minScalar;
+			Scalar maxScalar;
+			int bits;
+
+			synchronized (this) {
+				while (!pending && running) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (!running) {
+					return;
+				}
+
+				minScalar = this.minScalar;
+				maxScalar = this.maxScalar;
+				bits = this.bits;
+				pending = false;
+			}
+
+			try {
+				table = ThresholdLUT.build(minScalar, maxScalar, bits);
+			} catch (CvException e) {
+				System.err.println("Error: Unable to build threshold lookup table");
+				e.printStackTrace();
+			}
+		}
+	}
+
+	public ThresholdLUTBuilder() {
+		setName("Threshold-LUT-Builder");
+		setPriority(Thread.MIN_PRIORITY);
+		setDaemon(true);
+		running = true;
+	}
+}
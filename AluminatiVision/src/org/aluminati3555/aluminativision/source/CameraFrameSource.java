@@ -0,0 +1,60 @@
+/**
+ * Copyright (c) 2019 Team 3555
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.aluminati3555.aluminativision.source;
+
+import org.opencv.core.Mat;
+import org.opencv.videoio.VideoCapture;
+
+/**
+ * Reads frames from a live camera. The camera sets the pace.
+ * 
+ * @author Caleb Heydon
+ */
+public class CameraFrameSource implements IFrameSource {
+	private VideoCapture camera;
+
+	/**
+	 * Returns the camera
+	 * 
+	 * @return
+	 */
+	public VideoCapture getCamera() {
+		return camera;
+	}
+
+	public boolean grab() {
+		return camera.grab();
+	}
+
+	public boolean retrieve(Mat frame) {
+		return camera.retrieve(frame);
+	}
+
+	public void release() {
+		camera.release();
+	}
+
+	public CameraFrameSource(VideoCapture camera) {
+		this.camera = camera;
+	}
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright (c) 2019 Team 3555
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.aluminati3555.aluminativision.source;
+
+import java.io.IOException;
+
+import org.aluminati3555.aluminativision.CameraResolution;
+import org.opencv.videoio.VideoCapture;
+
+/**
+ * Creates frame sources from a short description such as camera:0,
+ * images:/home/pi/images, video:match.avi or synthetic:20
+ * 
+ * @author Caleb Heydon
+ */
+public class FrameSources {
+	/**
+	 * Creates a frame source
+	 * 
+	 * @param description The type and argument separated by a colon
+	 * @param resolution  The resolution of generated frames
+	 * @param fps         The target FPS for offline sources (0 for as fast as
+	 *                    possible)
+	 * @return
+	 * @throws IOException
+	 */
+	public static IFrameSource create(String description, CameraResolution resolution, double fps)
+			throws IOException {
+		String[] parts = description.split(":", 2);
+		String argument = (parts.length > 1) ? parts[1] : "";
+
+		switch (parts[0]) {
+		case "camera":
+			VideoCapture camera = new VideoCapture(argument.isEmpty() ? 0 : Integer.parseInt(argument));
+			if (!camera.isOpened()) {
+				throw new IOException("Unable to open camera " + argument);
+			}
+			return new CameraFrameSource(camera);
+		case "images":
+			return new ImageDirectoryFrameSource(argument, fps);
+		case "video":
+			return new VideoFileFrameSource(argument, fps);
+		case "synthetic":
+			int distractors = argument.isEmpty() ? 0 : Integer.parseInt(argument);
+			return new SyntheticFrameSource(resolution.width, resolution.height, distractors, fps);
+		default:
+			throw new IOException("Unknown frame source " + description);
+		}
+	}
+
+	/**
+	 * Returns true if the description is for a live camera
+	 * 
+	 * @param description
+	 * @return
+	 */
+	public static boolean isCamera(String description) {
+		return description.startsWith("camera");
+	}
+}
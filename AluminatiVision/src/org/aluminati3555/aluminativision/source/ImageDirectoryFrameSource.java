@@ -0,0 +1,102 @@
+/**
+ * Copyright (c) 2019 Team 3555
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.aluminati3555.aluminativision.source;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+/**
+ * Cycles through every image in a directory. The images are loaded up front so
+ * that disk access does not affect the timing.
+ * 
+ * @author Caleb Heydon
+ */
+public class ImageDirectoryFrameSource extends PacedFrameSource {
+	private ArrayList<Mat> images;
+	private int index;
+
+	/**
+	 * Returns true if the file looks like an image
+	 * 
+	 * @param file
+	 * @return
+	 */
+	private static boolean isImage(File file) {
+		String name = file.getName().toLowerCase();
+		return file.isFile() && (name.endsWith(".png") || name.endsWith(".jpg") || name.endsWith(".jpeg")
+				|| name.endsWith(".bmp"));
+	}
+
+	protected boolean next() {
+		index = (index + 1) % images.size();
+		return true;
+	}
+
+	public boolean retrieve(Mat frame) {
+		images.get(index).copyTo(frame);
+		return true;
+	}
+
+	public void release() {
+		for (int i = 0; i < images.size(); i++) {
+			images.get(i).release();
+		}
+		images.clear();
+	}
+
+	public ImageDirectoryFrameSource(String directory, double fps) throws IOException {
+		super(fps);
+
+		File[] files = new File(directory).listFiles();
+		if (files == null) {
+			throw new IOException("Unable to list " + directory);
+		}
+		Arrays.sort(files);
+
+		images = new ArrayList<Mat>();
+		for (int i = 0; i < files.length; i++) {
+			if (!isImage(files[i])) {
+				continue;
+			}
+
+			Mat image = Imgcodecs.imread(files[i].getPath());
+			if (image.empty()) {
+				image.release();
+				continue;
+			}
+
+			images.add(image);
+		}
+
+		if (images.isEmpty()) {
+			throw new IOException("No images found in " + directory);
+		}
+
+		index = -1;
+	}
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright (c) 2019 Team 3555
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.aluminati3555.aluminativision.source;
+
+import org.aluminati3555.aluminativision.util.VisionUtil;
+
+/**
+ * A frame source that can be limited to a target FPS. An FPS of zero or less
+ * runs as fast as possible.
+ * 
+ * @author Caleb Heydon
+ */
+public abstract class PacedFrameSource implements IFrameSource {
+	private double period;
+	private double nextTime;
+
+	/**
+	 * Loads the next frame
+	 * 
+	 * @return
+	 */
+	protected abstract boolean next();
+
+	/**
+	 * Waits until the next frame is due and then loads it
+	 */
+	public boolean grab() {
+		if (period > 0) {
+			double time = VisionUtil.getTime();
+
+			// Do not try to catch up if the consumer fell far behind
+			if (nextTime < time - period) {
+				nextTime = time;
+			}
+
+			// The sleep can end early if the thread is unparked
+			while (nextTime > time) {
+				VisionUtil.sleep(nextTime - time);
+				time = VisionUtil.getTime();
+			}
+
+			nextTime += period;
+		}
+
+		return next();
+	}
+
+	/**
+	 * Sets the target FPS
+	 * 
+	 * @param fps
+	 */
+	public void setFPS(double fps) {
+		period = (fps > 0) ? 1 / fps : 0;
+	}
+
+	public PacedFrameSource(double fps) {
+		setFPS(fps);
+		nextTime = VisionUtil.getTime();
+	}
+}
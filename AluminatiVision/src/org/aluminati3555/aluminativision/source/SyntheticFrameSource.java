@@ -0,0 +1,119 @@
+/**
+ * Copyright (c) 2019 Team 3555
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.aluminati3555.aluminativision.source;
+
+import java.util.Random;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Generates a scene with a pair of moving green targets and optional
+ * distractor blobs. Useful for measuring the pipeline without a camera.
+ * 
+ * @author Caleb Heydon
+ */
+public class SyntheticFrameSource extends PacedFrameSource {
+	private static final Scalar BACKGROUND = new Scalar(30, 30, 30);
+	private static final Scalar TARGET = new Scalar(60, 255, 60);
+	private static final Scalar DISTRACTOR = new Scalar(40, 180, 40);
+
+	private int width;
+	private int height;
+	private int distractors;
+
+	private Random random;
+	private long frameCount;
+
+	private Point corner1;
+	private Point corner2;
+
+	/**
+	 * Draws a filled box
+	 * 
+	 * @param frame
+	 * @param x
+	 * @param y
+	 * @param boxWidth
+	 * @param boxHeight
+	 * @param color
+	 */
+	private void drawBox(Mat frame, double x, double y, double boxWidth, double boxHeight, Scalar color) {
+		corner1.x = x;
+		corner1.y = y;
+		corner2.x = x + boxWidth;
+		corner2.y = y + boxHeight;
+		Imgproc.rectangle(frame, corner1, corner2, color, -1);
+	}
+
+	protected boolean next() {
+		frameCount++;
+		return true;
+	}
+
+	public boolean retrieve(Mat frame) {
+		frame.create(height, width, CvType.CV_8UC3);
+		frame.setTo(BACKGROUND);
+
+		// Move the target pair along a smooth path
+		double time = frameCount * 0.02;
+		double centerX = width * (0.5 + 0.3 * Math.sin(time * 0.9));
+		double centerY = height * (0.5 + 0.2 * Math.sin(time * 1.3));
+		double targetWidth = width * 0.04;
+		double targetHeight = height * 0.15;
+		double spacing = width * 0.12;
+
+		drawBox(frame, centerX - spacing / 2 - targetWidth, centerY - targetHeight / 2, targetWidth, targetHeight,
+				TARGET);
+		drawBox(frame, centerX + spacing / 2, centerY - targetHeight / 2, targetWidth, targetHeight, TARGET);
+
+		random.setSeed(frameCount);
+		for (int i = 0; i < distractors; i++) {
+			double size = 2 + random.nextInt(6);
+			drawBox(frame, random.nextInt(width), random.nextInt(height), size, size, DISTRACTOR);
+		}
+
+		return true;
+	}
+
+	public void release() {
+
+	}
+
+	public SyntheticFrameSource(int width, int height, int distractors, double fps) {
+		super(fps);
+
+		this.width = width;
+		this.height = height;
+		this.distractors = distractors;
+
+		random = new Random();
+		frameCount = 0l;
+
+		corner1 = new Point();
+		corner2 = new Point();
+	}
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright (c) 2019 Team 3555
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.aluminati3555.aluminativision.source;
+
+import java.io.IOException;
+
+import org.opencv.core.Mat;
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.Videoio;
+
+/**
+ * Plays a video file in a loop
+ * 
+ * @author Caleb Heydon
+ */
+public class VideoFileFrameSource extends PacedFrameSource {
+	private VideoCapture video;
+
+	protected boolean next() {
+		if (video.grab()) {
+			return true;
+		}
+
+		// Start over at the end of the file
+		video.set(Videoio.CAP_PROP_POS_FRAMES, 0);
+		return video.grab();
+	}
+
+	public boolean retrieve(Mat frame) {
+		return video.retrieve(frame);
+	}
+
+	public void release() {
+		video.release();
+	}
+
+	public VideoFileFrameSource(String file, double fps) throws IOException {
+		super(fps);
+
+		video = new VideoCapture(file);
+		if (!video.isOpened()) {
+			throw new IOException("Unable to open " + file);
+		}
+	}
+}
@@ -0,0 +1,209 @@
+/**
+ * Copyright (c) 2019 Team 3555
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.aluminati3555.aluminativision.tracking;
+
+import org.aluminati3555.aluminativision.net.VisionData;
+import org.aluminati3555.aluminativision.net.VisionTarget;
+
+/**
+ * A constant velocity (alpha-beta) filter for the main target. It runs between
+ * the pipeline and the output handler. Detections close to the predicted
+ * position continue the track, and anything else starts a new track with a new
+ * ID. The track coasts on its velocity through short dropouts, and the output
+ * is predicted forward from the capture time to the time it is sent so that
+ * the robot sees where the target is now. The first entry of the target list
+ * gets the same filtered values, and a coasting target is sent as a list of one
+ * with the size and box of the last detection.
+ * 
+ * @author Caleb Heydon
+ */
+public class TargetTracker {
+	// Filtered values (the size is held from the last detection)
+	private static final int X = 0;
+	private static final int Y = 1;
+	private static final int YAW = 2;
+	private static final int PITCH = 3;
+	private static final int STATE_SIZE = 4;
+
+	// Fraction of the error that corrects the position and the velocity
+	public double alpha = 0.5;
+	public double beta = 0.1;
+
+	// Largest jump from the predicted position (in the -1 to 1 frame units) that
+	// still continues the track
+	public double gate = 0.2;
+
+	// Seconds to keep reporting a target after it was last seen
+	public double maxCoastTime = 0.1;
+
+	// Predict the target to the time the output is sent instead of the time the
+	// frame was grabbed
+	public boolean predict = true;
+
+	private final double[] position;
+	private final double[] velocity;
+	private final double[] measurement;
+
+	private boolean tracking;
+	private boolean coasting;
+	private int trackId;
+	private int nextTrackId;
+
+	// Capture time of the filtered position and of the last detection
+	private double stateTime;
+	private double detectionTime;
+
+	private double targetWidth;
+	private double targetHeight;
+	private double targetArea;
+
+	// The main target of the last detection
+	private final VisionTarget lastTarget;
+
+	/**
+	 * Starts a new track at the measurement
+	 */
+	private void startTrack() {
+		for (int i = 0; i < STATE_SIZE; i++) {
+			position[i] = measurement[i];
+			velocity[i] = 0;
+		}
+
+		trackId = nextTrackId++;
+		tracking = true;
+	}
+
+	/**
+	 * Corrects the track with the measurement or starts a new track if it is too
+	 * far from the prediction
+	 * 
+	 * @param dt Seconds since the filtered position
+	 */
+	private void correct(double dt) {
+		if (!tracking) {
+			startTrack();
+			return;
+		}
+
+		// Frames with the same timestamp only correct the position
+		double step = Math.max(dt, 0);
+
+		double errorX = measurement[X] - (position[X] + velocity[X] * step);
+		double errorY = measurement[Y] - (position[Y] + velocity[Y] * step);
+		if (Math.abs(errorX) > gate || Math.abs(errorY) > gate) {
+			startTrack();
+			return;
+		}
+
+		for (int i = 0; i < STATE_SIZE; i++) {
+			double predicted = position[i] + velocity[i] * step;
+			double error = measurement[i] - predicted;
+
+			position[i] = predicted + alpha * error;
+			if (dt > 0) {
+				velocity[i] += beta * error / dt;
+			}
+		}
+	}
+
+	/**
+	 * Updates the track with the output of a frame and replaces the target info
+	 * with the filtered target
+	 * 
+	 * @param data The output of the pipeline (timestamp is the capture time)
+	 * @param now  The time the output will be sent on the same clock
+	 */
+	public void update(VisionData data, double now) {
+		double time = data.timestamp;
+
+		if (data.hasTarget) {
+			measurement[X] = data.x;
+			measurement[Y] = data.y;
+			measurement[YAW] = data.yaw;
+			measurement[PITCH] = data.pitch;
+
+			correct(time - stateTime);
+			stateTime = time;
+			detectionTime = time;
+			coasting = false;
+
+			targetWidth = data.targetWidth;
+			targetHeight = data.targetHeight;
+			targetArea = data.targetArea;
+			if (data.targetCount > 0) {
+				lastTarget.copyFrom(data.targets[0]);
+			}
+		} else if (tracking && time - detectionTime <= maxCoastTime) {
+			coasting = true;
+		} else {
+			tracking = false;
+			coasting = false;
+		}
+
+		if (!tracking) {
+			data.trackId = 0;
+			data.coasting = false;
+			data.velocityX = 0;
+			data.velocityY = 0;
+			return;
+		}
+
+		// Move the target from the filtered time to the capture time or to now
+		double dt = (predict ? now : time) - stateTime;
+
+		data.hasTarget = true;
+		data.x = position[X] + velocity[X] * dt;
+		data.y = position[Y] + velocity[Y] * dt;
+		data.yaw = position[YAW] + velocity[YAW] * dt;
+		data.pitch = position[PITCH] + velocity[PITCH] * dt;
+		data.targetWidth = targetWidth;
+		data.targetHeight = targetHeight;
+		data.targetArea = targetArea;
+
+		data.trackId = trackId;
+		data.coasting = coasting;
+		data.velocityX = velocity[X];
+		data.velocityY = velocity[Y];
+
+		// Keep the main target in the list in step with the filtered values
+		if (data.targetCount == 0) {
+			data.targets[0].copyFrom(lastTarget);
+			data.targetCount = 1;
+		}
+
+		VisionTarget target = data.targets[0];
+		target.x = data.x;
+		target.y = data.y;
+		target.yaw = data.yaw;
+		target.pitch = data.pitch;
+	}
+
+	public TargetTracker() {
+		position = new double[STATE_SIZE];
+		velocity = new double[STATE_SIZE];
+		measurement = new double[STATE_SIZE];
+		lastTarget = new VisionTarget();
+
+		nextTrackId = 1;
+	}
+}
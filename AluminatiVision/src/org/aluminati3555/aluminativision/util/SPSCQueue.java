@@ -0,0 +1,168 @@
+/**
+ * Copyright (c) 2019 Team 3555
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.aluminati3555.aluminativision.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded queue for exactly one producer thread and one consumer thread. It
+ * does not use locks or allocate after it is created.
+ * 
+ * @author Caleb Heydon
+ */
+public class SPSCQueue<T> {
+	private static final long MAX_WAIT = 1000000;
+
+	private Object[] items;
+	private int mask;
+
+	private AtomicLong head;
+	private AtomicLong tail;
+
+	private volatile Thread waitingProducer;
+	private volatile Thread waitingConsumer;
+
+	/**
+	 * Returns the number of items in the queue
+	 * 
+	 * @return
+	 */
+	public int size() {
+		return (int) (tail.get() - head.get());
+	}
+
+	/**
+	 * Adds an item if there is room
+	 * 
+	 * @param item
+	 * @return False if the queue is full
+	 */
+	public boolean offer(T item) {
+		long currentTail = tail.get();
+		if (currentTail - head.get() == items.length) {
+			return false;
+		}
+
+		items[(int) currentTail & mask] = item;
+		tail.set(currentTail + 1);
+
+		Thread consumer = waitingConsumer;
+		if (consumer != null) {
+			LockSupport.unpark(consumer);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Removes an item if there is one
+	 * 
+	 * @return The item or null if the queue is empty
+	 */
+	@SuppressWarnings("unchecked")
+	public T poll() {
+		long currentHead = head.get();
+		if (currentHead == tail.get()) {
+			return null;
+		}
+
+		int index = (int) currentHead & mask;
+		T item = (T) items[index];
+		items[index] = null;
+		head.set(currentHead + 1);
+
+		Thread producer = waitingProducer;
+		if (producer != null) {
+			LockSupport.unpark(producer);
+		}
+
+		return item;
+	}
+
+	/**
+	 * Adds an item and waits for room if the queue is full
+	 * 
+	 * @param item
+	 */
+	public void put(T item) {
+		while (!offer(item)) {
+			waitingProducer = Thread.currentThread();
+
+			// Check again in case the consumer made room before it saw the waiting thread
+			if (offer(item)) {
+				waitingProducer = null;
+				return;
+			}
+
+			LockSupport.parkNanos(this, MAX_WAIT);
+			waitingProducer = null;
+		}
+	}
+
+	/**
+	 * Removes an item and waits for one if the queue is empty
+	 * 
+	 * @param timeout The longest time to wait in nanoseconds
+	 * @return The item or null if the timeout passed
+	 */
+	public T take(long timeout) {
+		T item = poll();
+		if (item != null) {
+			return item;
+		}
+
+		long deadline = System.nanoTime() + timeout;
+		waitingConsumer = Thread.currentThread();
+
+		while ((item = poll()) == null) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				break;
+			}
+
+			LockSupport.parkNanos(this, Math.min(remaining, MAX_WAIT));
+		}
+
+		waitingConsumer = null;
+		return item;
+	}
+
+	/**
+	 * Creates a queue
+	 * 
+	 * @param capacity Rounded up to a power of two
+	 */
+	public SPSCQueue(int capacity) {
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+
+		items = new Object[size];
+		mask = size - 1;
+
+		head = new AtomicLong();
+		tail = new AtomicLong();
+	}
+}
@@ -22,6 +22,8 @@
 
 package org.aluminati3555.aluminativision.util;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.util.concurrent.locks.LockSupport;
 
 import org.opencv.core.Mat;
@@ -203,4 +205,21 @@ public class VisionUtil {
 	public static void sleep(double time) {
 		LockSupport.parkNanos(Math.round(time * 1000000000));
 	}
+
+	/**
+	 * Returns the number of bytes a thread has allocated on the heap or -1 if the
+	 * JVM does not track it. Call this from a different thread than the one being
+	 * measured since the lookup itself allocates.
+	 * 
+	 * @param thread
+	 * @return
+	 */
+	public static long getAllocatedBytes(Thread thread) {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+			return -1;
+		}
+
+		return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(thread.getId());
+	}
 }
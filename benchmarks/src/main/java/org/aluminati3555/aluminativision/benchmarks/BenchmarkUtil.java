@@ -0,0 +1,118 @@
+/**
+ * Copyright (c) 2019 Team 3555
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.aluminati3555.aluminativision.benchmarks;
+
+import java.io.File;
+
+import org.aluminati3555.aluminativision.pipeline.PipelineConfig;
+import org.aluminati3555.aluminativision.pipeline.PipelineConfig.PipelineMode;
+import org.aluminati3555.aluminativision.pipeline.PipelineConfig.TargetMode;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Shared setup code for the benchmarks
+ * 
+ * @author Caleb Heydon
+ */
+public class BenchmarkUtil {
+	// The example images directory (override with -Daluminativision.images=<dir>)
+	public static final String IMAGES_DIRECTORY = System.getProperty("aluminativision.images", "../images");
+
+	private static boolean loaded;
+
+	/**
+	 * Loads the OpenCV natives. The system OpenCV (as installed on the Pi) is
+	 * preferred, and the natives bundled with the openpnp jar are used otherwise.
+	 */
+	public static synchronized void loadOpenCV() {
+		if (loaded) {
+			return;
+		}
+
+		try {
+			System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+		} catch (UnsatisfiedLinkError e) {
+			nu.pattern.OpenCV.loadLocally();
+		}
+
+		loaded = true;
+	}
+
+	/**
+	 * Loads one of the example images and scales it
+	 * 
+	 * @param name
+	 * @param scale
+	 * @return
+	 */
+	public static Mat loadImage(String name, double scale) {
+		loadOpenCV();
+
+		File file = new File(IMAGES_DIRECTORY, name);
+		Mat image = Imgcodecs.imread(file.getPath());
+		if (image.empty()) {
+			throw new IllegalStateException("Unable to read " + file.getAbsolutePath());
+		}
+
+		if (scale != 1) {
+			Mat scaled = new Mat();
+			Imgproc.resize(image, scaled, new Size(), scale, scale,
+					scale < 1 ? Imgproc.INTER_AREA : Imgproc.INTER_LINEAR);
+			image.release();
+			image = scaled;
+		}
+
+		return image;
+	}
+
+	/**
+	 * Returns a pipeline config with the thresholds and filters for the green
+	 * retroreflective tape in the example images
+	 * 
+	 * @param pipelineMode
+	 * @param targetMode
+	 * @return
+	 */
+	public static PipelineConfig createTapeConfig(PipelineMode pipelineMode, TargetMode targetMode) {
+		PipelineConfig config = new PipelineConfig();
+		config.pipelineMode = pipelineMode;
+		config.targetMode = targetMode;
+
+		config.thresholdHueMin = 50;
+		config.thresholdHueMax = 90;
+		config.thresholdSaturationMin = 100;
+		config.thresholdSaturationMax = 255;
+		config.thresholdValueMin = 100;
+		config.thresholdValueMax = 255;
+		config.contourAreaMin = 0.0001;
+		config.contourAreaMax = 1;
+		config.contourRatioMin = 0;
+		config.contourRatioMax = 10;
+
+		return config;
+	}
+}
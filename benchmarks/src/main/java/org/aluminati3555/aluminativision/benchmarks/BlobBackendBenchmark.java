@@ -0,0 +1,116 @@
+/**
+ * Copyright (c) 2019 Team 3555
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.aluminati3555.aluminativision.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.aluminati3555.aluminativision.pipeline.ConfigurablePipeline;
+import org.aluminati3555.aluminativision.pipeline.PipelineConfig;
+import org.aluminati3555.aluminativision.pipeline.PipelineConfig.BlobBackend;
+import org.aluminati3555.aluminativision.pipeline.PipelineConfig.PipelineMode;
+import org.aluminati3555.aluminativision.pipeline.PipelineConfig.TargetMode;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks the contour and connected components blob backends on the example
+ * images and on noisy frames with many small blobs
+ * 
+ * @author Caleb Heydon
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlobBackendBenchmark {
+	// An example image or noise-<blob count>
+	@Param({ "example-2014.png", "example-2016.png", "noise-300", "noise-1500" })
+	public String image;
+
+	@Param({ "0.4", "1" })
+	public double scale;
+
+	@Param({ "CONTOURS", "CONNECTED_COMPONENTS" })
+	public String backend;
+
+	private Mat frame;
+	private ConfigurablePipeline pipeline;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		if (image.startsWith("noise-")) {
+			BenchmarkUtil.loadOpenCV();
+
+			// Small green dots (the example images are 800x600 at a scale of 1)
+			int width = (int) (800 * scale);
+			int height = (int) (600 * scale);
+			frame = new Mat(height, width, CvType.CV_8UC3, new Scalar(0, 0, 0));
+
+			Random random = new Random(3555);
+			int blobs = Integer.parseInt(image.substring(6));
+			for (int i = 0; i < blobs; i++) {
+				Imgproc.circle(frame, new Point(random.nextInt(width), random.nextInt(height)), 1 + random.nextInt(3),
+						new Scalar(0, 255, 0), -1);
+			}
+		} else {
+			frame = BenchmarkUtil.loadImage(image, scale);
+		}
+
+		PipelineConfig config = BenchmarkUtil.createTapeConfig(PipelineMode.PROCESSING, TargetMode.SINGLE);
+		config.blobBackend = BlobBackend.valueOf(backend);
+
+		pipeline = new ConfigurablePipeline(config);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		pipeline.release();
+		frame.release();
+	}
+
+	@Benchmark
+	public void process(Blackhole blackhole) {
+		blackhole.consume(pipeline.process(frame, 187));
+		blackhole.consume(pipeline.getOutput().x);
+	}
+}
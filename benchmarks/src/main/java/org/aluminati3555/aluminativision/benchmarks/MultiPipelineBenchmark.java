@@ -0,0 +1,130 @@
+/**
+ * Copyright (c) 2019 Team 3555
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.aluminati3555.aluminativision.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.aluminati3555.aluminativision.pipeline.ConfigurablePipeline;
+import org.aluminati3555.aluminativision.pipeline.MultiPipelineRunner;
+import org.aluminati3555.aluminativision.pipeline.PipelineConfig;
+import org.aluminati3555.aluminativision.pipeline.PipelineConfig.PipelineMode;
+import org.aluminati3555.aluminativision.pipeline.PipelineConfig.TargetMode;
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks running several pipelines on one frame with the multi pipeline
+ * runner (shared hsv conversion, on one thread or in parallel) against running
+ * them one after another
+ * 
+ * @author Caleb Heydon
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MultiPipelineBenchmark {
+	@Param({ "2", "3" })
+	public int pipelines;
+
+	// Threads for the runner (0 uses the free cores)
+	@Param({ "1", "0" })
+	public int threads;
+
+	@Param({ "1" })
+	public double scale;
+
+	private Mat frame;
+	private ConfigurablePipeline[] separatePipelines;
+	private MultiPipelineRunner runner;
+
+	/**
+	 * Creates a pipeline for green tape in one of the target modes
+	 * 
+	 * @param index
+	 * @return
+	 */
+	private static ConfigurablePipeline createPipeline(int index) {
+		PipelineConfig config = BenchmarkUtil.createTapeConfig(PipelineMode.PROCESSING,
+				TargetMode.values()[index % TargetMode.values().length]);
+		return new ConfigurablePipeline(config);
+	}
+
+	@Setup(Level.Trial)
+	public void setup() {
+		frame = BenchmarkUtil.loadImage("example-2016.png", scale);
+
+		separatePipelines = new ConfigurablePipeline[pipelines];
+		ConfigurablePipeline[] runnerPipelines = new ConfigurablePipeline[pipelines];
+		for (int i = 0; i < pipelines; i++) {
+			separatePipelines[i] = createPipeline(i);
+			runnerPipelines[i] = createPipeline(i);
+		}
+
+		runner = new MultiPipelineRunner(runnerPipelines, threads, "Benchmark-Pipeline");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		runner.release();
+		for (int i = 0; i < separatePipelines.length; i++) {
+			separatePipelines[i].release();
+		}
+		frame.release();
+	}
+
+	/**
+	 * Runs the pipelines one after another, each converting the frame itself
+	 */
+	@Benchmark
+	public void separate(Blackhole blackhole) {
+		for (int i = 0; i < separatePipelines.length; i++) {
+			blackhole.consume(separatePipelines[i].process(frame, 187));
+			blackhole.consume(separatePipelines[i].getOutput().x);
+		}
+	}
+
+	/**
+	 * Runs the pipelines with the runner
+	 */
+	@Benchmark
+	public void runner(Blackhole blackhole) {
+		blackhole.consume(runner.process(frame, 187));
+		blackhole.consume(runner.getOutput(pipelines - 1).x);
+	}
+}
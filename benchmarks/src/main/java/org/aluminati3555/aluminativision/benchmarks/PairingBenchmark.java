@@ -0,0 +1,177 @@
+/**
+ * Copyright (c) 2019 Team 3555
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.aluminati3555.aluminativision.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.aluminati3555.aluminativision.pipeline.CandidateStore;
+import org.aluminati3555.aluminativision.pipeline.ConfigurablePipeline;
+import org.aluminati3555.aluminativision.pipeline.PairingEngine;
+import org.aluminati3555.aluminativision.pipeline.PipelineConfig;
+import org.aluminati3555.aluminativision.pipeline.PipelineConfig.BlobBackend;
+import org.aluminati3555.aluminativision.pipeline.PipelineConfig.PipelineMode;
+import org.aluminati3555.aluminativision.pipeline.PipelineConfig.TargetMode;
+import org.aluminati3555.aluminativision.pipeline.PipelineFrame;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.RotatedRect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks the dual target pairing on frames full of tilted target pairs. The
+ * pairing engine is run on its own (with the tilts already measured) and as
+ * part of the whole pipeline.
+ * 
+ * @author Caleb Heydon
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PairingBenchmark {
+	private static final int WIDTH = 800;
+	private static final int HEIGHT = 600;
+	private static final double TILT = 14.5;
+
+	@Param({ "50", "200", "1000" })
+	public int blobs;
+
+	// Maximum tilt error (0 turns the tilt off)
+	@Param({ "0", "20" })
+	public double tiltError;
+
+	private Mat frame;
+	private PipelineConfig config;
+	private ConfigurablePipeline pipeline;
+	private PipelineFrame pipelineFrame;
+	private PairingEngine pairing;
+
+	/**
+	 * Draws a target and adds it to the candidates
+	 * 
+	 * @param center
+	 * @param size
+	 * @param angle  Lean of the top toward the right in degrees
+	 */
+	private void addTarget(Point center, Size size, double angle) {
+		RotatedRect rect = new RotatedRect(center, size, angle);
+		Point[] points = new Point[4];
+		rect.points(points);
+		Imgproc.fillConvexPoly(frame, new MatOfPoint(points), new Scalar(0, 255, 0));
+
+		Rect box = rect.boundingRect();
+		int index = pipelineFrame.candidates.add(box.x, box.y, box.width, box.height,
+				size.area() / (WIDTH * HEIGHT), size.area() / box.area(), (double) box.width / box.height,
+				box.area());
+
+		// The long side is measured from horizontal
+		pipelineFrame.candidates.tilt[index] = (angle > 0) ? 90 - angle : -90 - angle;
+	}
+
+	@Setup(Level.Trial)
+	public void setup() {
+		BenchmarkUtil.loadOpenCV();
+
+		config = BenchmarkUtil.createTapeConfig(PipelineMode.PROCESSING, TargetMode.DUAL_HORIZONTAL);
+		config.blobBackend = BlobBackend.CONNECTED_COMPONENTS;
+		config.maxTargets = 8;
+		config.pairTilt = TILT;
+		config.pairMaxTiltError = tiltError;
+
+		// The grid's targets are small
+		config.contourAreaMin = 0.00001;
+
+		pipeline = new ConfigurablePipeline(config);
+		pipelineFrame = new PipelineFrame();
+		pipelineFrame.config = config;
+		pairing = pipelineFrame.pairing;
+
+		// One pair of targets in each cell of a grid with some of the targets moved
+		frame = new Mat(HEIGHT, WIDTH, CvType.CV_8UC3, new Scalar(0, 0, 0));
+		int pairs = blobs / 2;
+		int columns = (int) Math.ceil(Math.sqrt(pairs * WIDTH / (double) HEIGHT));
+		int rows = (int) Math.ceil((double) pairs / columns);
+		double cellWidth = (double) WIDTH / columns;
+		double cellHeight = (double) HEIGHT / rows;
+
+		Random random = new Random(3555);
+		for (int i = 0; i < pairs; i++) {
+			double scale = 0.6 + 0.4 * random.nextDouble();
+			double height = cellHeight * 0.4 * scale;
+			double width = Math.max(2, height / 3);
+			double x = (i % columns + 0.5) * cellWidth;
+			double y = (i / columns + 0.5) * cellHeight + (random.nextDouble() - 0.5) * cellHeight * 0.2;
+			double spacing = cellWidth * 0.3 * scale;
+
+			addTarget(new Point(x - spacing / 2, y), new Size(width, height), TILT);
+			addTarget(new Point(x + spacing / 2, y), new Size(width, height), -TILT);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		pipeline.release();
+		pipelineFrame.release();
+		frame.release();
+	}
+
+	/**
+	 * Pairs the candidates
+	 */
+	@Benchmark
+	public int findPairs() {
+		return pairing.findPairs(pipeline, pipelineFrame);
+	}
+
+	/**
+	 * Finds the blobs in the frame and pairs them (measuring the tilt when it is
+	 * used)
+	 */
+	@Benchmark
+	public void process(Blackhole blackhole) {
+		blackhole.consume(pipeline.process(frame, 187));
+		blackhole.consume(pipeline.getOutput().x);
+	}
+}
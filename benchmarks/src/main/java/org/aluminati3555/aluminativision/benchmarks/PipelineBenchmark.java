@@ -0,0 +1,105 @@
+/**
+ * Copyright (c) 2019 Team 3555
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.aluminati3555.aluminativision.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.aluminati3555.aluminativision.pipeline.ConfigurablePipeline;
+import org.aluminati3555.aluminativision.pipeline.PipelineConfig;
+import org.aluminati3555.aluminativision.pipeline.PipelineConfig.PipelineMode;
+import org.aluminati3555.aluminativision.pipeline.PipelineConfig.TargetMode;
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks ConfigurablePipeline.process on the example images in driver mode
+ * and in each target mode
+ * 
+ * @author Caleb Heydon
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipelineBenchmark {
+	@Param({ "example-2014.png", "example-2016.png" })
+	public String image;
+
+	// 0.25 of the example images is close to the 320x240 camera resolution
+	@Param({ "0.25", "0.5", "1" })
+	public double scale;
+
+	// DRIVER or one of the target modes
+	@Param({ "DRIVER", "SINGLE", "DUAL_HORIZONTAL", "DUAL_VERTICAL" })
+	public String mode;
+
+	// Region of interest tracking (the image does not move, so the target stays
+	// locked)
+	@Param({ "false", "true" })
+	public boolean roi;
+
+	private Mat frame;
+	private ConfigurablePipeline pipeline;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		frame = BenchmarkUtil.loadImage(image, scale);
+
+		PipelineConfig config;
+		if (mode.equals("DRIVER")) {
+			config = BenchmarkUtil.createTapeConfig(PipelineMode.DRIVER, TargetMode.SINGLE);
+		} else {
+			config = BenchmarkUtil.createTapeConfig(PipelineMode.PROCESSING, TargetMode.valueOf(mode));
+		}
+		config.roiEnabled = roi;
+
+		pipeline = new ConfigurablePipeline(config);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		pipeline.release();
+		frame.release();
+	}
+
+	@Benchmark
+	public void process(Blackhole blackhole) {
+		blackhole.consume(pipeline.process(frame, 187));
+		blackhole.consume(pipeline.getOutput().x);
+	}
+}
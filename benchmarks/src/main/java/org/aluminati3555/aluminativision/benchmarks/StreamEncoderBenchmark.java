@@ -0,0 +1,104 @@
+/**
+ * Copyright (c) 2019 Team 3555
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.aluminati3555.aluminativision.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.aluminati3555.aluminativision.CameraResolution;
+import org.aluminati3555.aluminativision.net.StreamEncoder;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the MJPEG stream path (resizing a camera frame to the stream
+ * resolution, drawing the overlay and compressing it)
+ * 
+ * @author Caleb Heydon
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamEncoderBenchmark {
+	@Param({ "example-2014.png", "example-2016.png" })
+	public String image;
+
+	// Stream width (the height keeps the 4:3 aspect ratio)
+	@Param({ "160", "320", "640" })
+	public int width;
+
+	private Mat camera;
+	private Mat frame;
+	private StreamEncoder encoder;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		camera = BenchmarkUtil.loadImage(image, 1);
+
+		CameraResolution resolution = new CameraResolution(width, width * 3 / 4);
+		frame = new Mat();
+		Imgproc.resize(camera, frame, new Size(resolution.width, resolution.height), 0, 0, Imgproc.INTER_AREA);
+
+		// The encoder is used directly so that no server or clients are needed
+		encoder = new StreamEncoder(null, resolution);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		camera.release();
+		frame.release();
+	}
+
+	/**
+	 * Compresses a frame that is already at the stream resolution
+	 */
+	@Benchmark
+	public int encode() {
+		return encoder.encode(frame, 187);
+	}
+
+	/**
+	 * Resizes a full camera frame and compresses it
+	 */
+	@Benchmark
+	public int resizeAndEncode() {
+		Imgproc.resize(camera, frame, frame.size(), 0, 0, Imgproc.INTER_AREA);
+		return encoder.encode(frame, 187);
+	}
+}
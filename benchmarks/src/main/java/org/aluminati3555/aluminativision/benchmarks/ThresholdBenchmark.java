@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) 2019 Team 3555
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.aluminati3555.aluminativision.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.aluminati3555.aluminativision.pipeline.PipelineFrame;
+import org.aluminati3555.aluminativision.pipeline.ThresholdLUT;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks thresholding with cvtColor and inRange against the lookup table
+ * engine at 8, 6 and 5 bits per channel
+ * 
+ * @author Caleb Heydon
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ThresholdBenchmark {
+	@Param({ "example-2014.png", "example-2016.png" })
+	public String image;
+
+	@Param({ "0.4", "1" })
+	public double scale;
+
+	// hsv or lut<bits>
+	@Param({ "hsv", "lut8", "lut6", "lut5" })
+	public String engine;
+
+	private Mat frame;
+	private Mat hsvFrame;
+	private Mat mask;
+	private Scalar minScalar;
+	private Scalar maxScalar;
+	private ThresholdLUT lut;
+	private PipelineFrame pipelineFrame;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		frame = BenchmarkUtil.loadImage(image, scale);
+		hsvFrame = new Mat();
+		mask = new Mat();
+
+		// Green retroreflective tape
+		minScalar = new Scalar(50, 100, 100);
+		maxScalar = new Scalar(90, 255, 255);
+
+		if (engine.startsWith("lut")) {
+			lut = ThresholdLUT.build(minScalar, maxScalar, Integer.parseInt(engine.substring(3)));
+		}
+		pipelineFrame = new PipelineFrame();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		frame.release();
+		hsvFrame.release();
+		mask.release();
+		pipelineFrame.release();
+	}
+
+	@Benchmark
+	public Mat threshold() {
+		if (lut != null) {
+			lut.apply(frame, mask, pipelineFrame);
+		} else {
+			Imgproc.cvtColor(frame, hsvFrame, Imgproc.COLOR_BGR2HSV);
+			Core.inRange(hsvFrame, minScalar, maxScalar, mask);
+		}
+
+		return mask;
+	}
+}
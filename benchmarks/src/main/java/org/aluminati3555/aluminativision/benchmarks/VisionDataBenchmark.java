@@ -0,0 +1,116 @@
+/**
+ * Copyright (c) 2019 Team 3555
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.aluminati3555.aluminativision.benchmarks;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+
+import org.aluminati3555.aluminativision.lib.VisionUtil;
+import org.aluminati3555.aluminativision.net.UDPVisionOutputHandler;
+import org.aluminati3555.aluminativision.net.VisionData;
+import org.aluminati3555.aluminativision.net.VisionTarget;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks serializing the target info on the vision side and parsing it in
+ * the robot library
+ * 
+ * @author Caleb Heydon
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VisionDataBenchmark {
+	private UDPVisionOutputHandler outputHandler;
+	private VisionData data;
+	private byte[] packet;
+	private int packetLength;
+
+	@Setup(Level.Trial)
+	public void setup() throws UnknownHostException, SocketException {
+		outputHandler = new UDPVisionOutputHandler("127.0.0.1", 5800, 0);
+
+		data = new VisionData();
+		data.fps = 187;
+		data.timestamp = 1234.5;
+		data.processingLatency = 0.0025;
+		data.hasTarget = true;
+		data.x = 0.25;
+		data.y = -0.5;
+		data.targetWidth = 0.1;
+		data.targetHeight = 0.05;
+		data.targetArea = 0.005;
+
+		data.targetCount = VisionData.MAX_TARGETS;
+		for (int i = 0; i < data.targetCount; i++) {
+			VisionTarget target = data.targets[i];
+			target.score = 0.005 / (i + 1);
+			target.x = 0.25;
+			target.y = -0.5;
+			target.width = 0.1;
+			target.height = 0.05;
+			target.area = 0.004;
+			target.boxX = 10 * i;
+			target.boxY = 20;
+			target.boxWidth = 32;
+			target.boxHeight = 12;
+		}
+
+		outputHandler.write(data);
+		packet = outputHandler.getBuffer().clone();
+		packetLength = outputHandler.getLength();
+	}
+
+	/**
+	 * Writes the target info (with every target) into the packet buffer without
+	 * sending it
+	 */
+	@Benchmark
+	public byte[] serialize() {
+		outputHandler.write(data);
+		return outputHandler.getBuffer();
+	}
+
+	/**
+	 * Parses a received packet
+	 */
+	@Benchmark
+	public org.aluminati3555.aluminativision.lib.VisionData deserialize() throws IOException {
+		return VisionUtil.parseVisionData(packet, packetLength);
+	}
+}
@@ -28,10 +28,33 @@ package org.aluminati3555.aluminativision.lib;
  * @author Caleb Heydon
  */
 public class VisionData {
+	// Most targets that are sent per frame
+	public static final int MAX_TARGETS = 8;
+
 	public int camera;
+
+	// Index of the pipeline that made this output when the camera runs more than
+	// one (0 otherwise)
+	public int pipeline;
 	public double fps;
+
+	// Number of the frame since the camera started (gaps are dropped frames)
+	public long sequence;
+
+	// Times in seconds on the vision system's clock of when the frame was grabbed,
+	// when the pipeline finished and when the data was sent
 	public double timestamp;
+	public double pipelineTimestamp;
+	public double sentTimestamp;
+
 	public double processingLatency;
+
+	// Age of the measurement when it was sent (seconds)
+	public double latency;
+
+	// Time in seconds on this computer's clock (System.nanoTime()) of when the data
+	// was received
+	public double receivedTimestamp;
 	
 	public boolean hasTarget;
 	
@@ -43,4 +66,52 @@ public class VisionData {
 	public double targetWidth;
 	public double targetHeight;
 	public double targetArea;
+
+	// Angles to the center of the target in degrees (right and up are positive).
+	// These are only found when the camera has a calibration.
+	public double yaw;
+	public double pitch;
+
+	// Set when the target tracker is on. The ID changes when a new target is
+	// picked up (0 is no track). Coasting targets were not seen in this frame and
+	// are predicted from the velocity (frame units per second).
+	public int trackId;
+	public boolean coasting;
+	public double velocityX;
+	public double velocityY;
+
+	// Every accepted target (best first). Only the first targetCount are valid.
+	// With the tracker on the first target has the filtered position and angles,
+	// and a coasting target is sent as the only one.
+	public int targetCount;
+	public VisionTarget[] targets;
+
+	/**
+	 * Returns the time the frame was grabbed on the same clock as the given
+	 * receive time. The network delay is not included.
+	 * 
+	 * @param receivedTimestamp
+	 * @return
+	 */
+	public double getCaptureTime(double receivedTimestamp) {
+		return receivedTimestamp - latency;
+	}
+
+	/**
+	 * Returns the age of the measurement in seconds
+	 * 
+	 * @param currentTimestamp The current time on the same clock as
+	 *                         receivedTimestamp
+	 * @return
+	 */
+	public double getAge(double currentTimestamp) {
+		return currentTimestamp - receivedTimestamp + latency;
+	}
+
+	public VisionData() {
+		targets = new VisionTarget[MAX_TARGETS];
+		for (int i = 0; i < targets.length; i++) {
+			targets[i] = new VisionTarget();
+		}
+	}
 }
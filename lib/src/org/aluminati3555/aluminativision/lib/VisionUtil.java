@@ -40,6 +40,28 @@ import org.aluminati3555.aluminativision.lib.PipelineConfig.TargetMode;
  * @author Caleb Heydon
  */
 public class VisionUtil {
+	// Sizes of the original packet, of the packet once the times were added, once
+	// the angles were added and once the tracking was added. Packets from older
+	// versions end after one of these.
+	public static final int ORIGINAL_PACKET_SIZE = 69;
+	public static final int TIMES_PACKET_SIZE = 101;
+	public static final int ANGLES_PACKET_SIZE = 117;
+	public static final int TRACKING_PACKET_SIZE = 138;
+
+	// Size of the fields that every newer packet starts with. They are followed by
+	// the length of the header and of each target record (one byte each), which
+	// are used to find the targets.
+	public static final int PACKET_SIZE = 139;
+	public static final int HEADER_SIZE = PACKET_SIZE + 2;
+
+	// Size of each target record that is read and the largest packet that is sent
+	public static final int TARGET_SIZE = 80;
+	public static final int MAX_PACKET_SIZE = HEADER_SIZE + 1 + VisionData.MAX_TARGETS * TARGET_SIZE;
+
+	// Largest packet that can be received (newer versions can send longer headers
+	// and target records)
+	public static final int MAX_RECEIVE_SIZE = 255 + 1 + VisionData.MAX_TARGETS * 255;
+
 	/**
 	 * Sends a pipeline config to the vision system
 	 * 
@@ -90,21 +112,50 @@ public class VisionUtil {
 
 	/**
 	 * Reads the vision data from the socket. Run in a new thread. This function
-	 * blocks until a packet is received.
+	 * blocks until a packet is received. The receive time is recorded so that the
+	 * capture time can be found on this computer's clock.
 	 * 
 	 * @param socket
 	 * @return
 	 * @throws IOException 
 	 */
 	public static VisionData readVisionData(DatagramSocket socket) throws IOException {
-		VisionData data = new VisionData();
-		
-		byte[] buffer = new byte[69];
+		byte[] buffer = new byte[MAX_RECEIVE_SIZE];
 		DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
 		
 		socket.receive(packet);
+		double receivedTimestamp = System.nanoTime() / 1000000000.0;
+		
+		VisionData data = parseVisionData(buffer, packet.getLength());
+		data.receivedTimestamp = receivedTimestamp;
+		
+		return data;
+	}
+
+	/**
+	 * Parses the vision data from a received packet
+	 * 
+	 * @param buffer
+	 * @return
+	 * @throws IOException
+	 */
+	public static VisionData parseVisionData(byte[] buffer) throws IOException {
+		return parseVisionData(buffer, buffer.length);
+	}
+
+	/**
+	 * Parses the vision data from the first length bytes of a received packet.
+	 * Anything that an older version did not send is left as 0.
+	 * 
+	 * @param buffer
+	 * @param length The number of bytes that were received
+	 * @return
+	 * @throws IOException
+	 */
+	public static VisionData parseVisionData(byte[] buffer, int length) throws IOException {
+		VisionData data = new VisionData();
 		
-		ByteArrayInputStream byteInput = new ByteArrayInputStream(buffer);
+		ByteArrayInputStream byteInput = new ByteArrayInputStream(buffer, 0, length);
 		DataInputStream input = new DataInputStream(byteInput);
 		
 		data.camera = input.readInt();
@@ -118,6 +169,63 @@ public class VisionUtil {
 		data.targetHeight = input.readDouble();
 		data.targetArea = input.readDouble();
 		
+		// Packets from older versions end after one of these blocks and leave the
+		// rest as 0
+		if (length >= TIMES_PACKET_SIZE) {
+			data.sequence = input.readLong();
+			data.pipelineTimestamp = input.readDouble();
+			data.sentTimestamp = input.readDouble();
+			data.latency = input.readDouble();
+		}
+		
+		if (length >= ANGLES_PACKET_SIZE) {
+			data.yaw = input.readDouble();
+			data.pitch = input.readDouble();
+		}
+		
+		if (length >= TRACKING_PACKET_SIZE) {
+			data.trackId = input.readInt();
+			data.velocityX = input.readDouble();
+			data.velocityY = input.readDouble();
+			data.coasting = input.readBoolean();
+		}
+		
+		if (length >= PACKET_SIZE) {
+			data.pipeline = input.readUnsignedByte();
+		}
+		
+		// The targets that were found start after the header, and fields this
+		// version does not know are skipped. Packets from older versions have none,
+		// and only the targets that were received are read.
+		int headerSize = 0;
+		int targetSize = 0;
+		if (length >= HEADER_SIZE) {
+			headerSize = input.readUnsignedByte();
+			targetSize = input.readUnsignedByte();
+		}
+		if (headerSize >= HEADER_SIZE && targetSize >= TARGET_SIZE && length > headerSize) {
+			input.skipBytes(headerSize - HEADER_SIZE);
+			data.targetCount = Math.min(input.readUnsignedByte(), VisionData.MAX_TARGETS);
+			data.targetCount = Math.min(data.targetCount, (length - headerSize - 1) / targetSize);
+		}
+		for (int i = 0; i < data.targetCount; i++) {
+			VisionTarget target = data.targets[i];
+			
+			target.score = input.readDouble();
+			target.x = input.readDouble();
+			target.y = input.readDouble();
+			target.width = input.readDouble();
+			target.height = input.readDouble();
+			target.area = input.readDouble();
+			target.boxX = input.readInt();
+			target.boxY = input.readInt();
+			target.boxWidth = input.readInt();
+			target.boxHeight = input.readInt();
+			target.yaw = input.readDouble();
+			target.pitch = input.readDouble();
+			input.skipBytes(targetSize - TARGET_SIZE);
+		}
+		
 		input.close();
 		
 		return data;